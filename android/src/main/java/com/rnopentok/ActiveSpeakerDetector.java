@@ -0,0 +1,119 @@
+package com.rnopentok;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Picks the dominant speaker from per-stream audio levels. Levels are smoothed with
+ * an exponential moving average; a new speaker has to be louder than the current one
+ * by {@link #HYSTERESIS} and a speaker is kept for at least {@link #HOLD_TIME} ms, so
+ * short interjections or noise do not make the highlight flicker. Streams that sent
+ * no level for {@link #STALE_TIME} ms are forgotten.
+ *
+ * Times are milliseconds on the caller's clock.
+ */
+final class ActiveSpeakerDetector {
+    static final double SPEECH_LEVEL = 0.05;
+    static final double HYSTERESIS = 1.5;
+    static final long SMOOTHING_TIME = 300;
+    static final long HOLD_TIME = 1500;
+    static final long STALE_TIME = 2000;
+
+    private static final class Participant {
+        double level;
+        long updatedAt;
+
+        Participant(double level, long updatedAt) {
+            this.level = level;
+            this.updatedAt = updatedAt;
+        }
+    }
+
+    private final HashMap<String, Participant> mParticipants = new HashMap<>();
+    private String mSpeaker = null;
+    private long mChangedAt = Long.MIN_VALUE / 2;
+
+    private long mSamples = 0;
+    private long mChanges = 0;
+
+    /** Returns true when the sample made another stream the active speaker. */
+    synchronized boolean onAudioLevel(String key, double level, long now) {
+        mSamples++;
+        Participant participant = mParticipants.get(key);
+        if (participant == null) {
+            mParticipants.put(key, new Participant(level, now));
+        } else {
+            double alpha = 1 - Math.exp(-Math.max(0, now - participant.updatedAt) / (double) SMOOTHING_TIME);
+            participant.level += alpha * (level - participant.level);
+            participant.updatedAt = now;
+        }
+        return evaluate(now);
+    }
+
+    /** Forgets a stream. Returns true when it was the active speaker. */
+    synchronized boolean remove(String key, long now) {
+        mParticipants.remove(key);
+        if (key.equals(mSpeaker)) {
+            mSpeaker = null;
+            mChangedAt = now;
+            mChanges++;
+            return true;
+        }
+        return false;
+    }
+
+    /** Forgets all streams and the speaker, e.g. when detection is turned off. */
+    synchronized void clear() {
+        mParticipants.clear();
+        mSpeaker = null;
+    }
+
+    synchronized String getSpeaker() {
+        return mSpeaker;
+    }
+
+    synchronized long getSampleCount() {
+        return mSamples;
+    }
+
+    synchronized long getChangeCount() {
+        return mChanges;
+    }
+
+    private boolean evaluate(long now) {
+        String loudest = null;
+        double loudestLevel = 0;
+        double speakerLevel = 0;
+
+        Iterator<Map.Entry<String, Participant>> iterator = mParticipants.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Participant> entry = iterator.next();
+            Participant participant = entry.getValue();
+            if (now - participant.updatedAt > STALE_TIME) {
+                // Streams can stop sending levels without being removed.
+                iterator.remove();
+                continue;
+            }
+            if (participant.level > loudestLevel) {
+                loudest = entry.getKey();
+                loudestLevel = participant.level;
+            }
+            if (entry.getKey().equals(mSpeaker)) {
+                speakerLevel = participant.level;
+            }
+        }
+
+        if (loudest == null || loudest.equals(mSpeaker) || loudestLevel < SPEECH_LEVEL) {
+            return false;
+        }
+        if (now - mChangedAt < HOLD_TIME || loudestLevel < speakerLevel * HYSTERESIS) {
+            return false;
+        }
+
+        mSpeaker = loudest;
+        mChangedAt = now;
+        mChanges++;
+        return true;
+    }
+}
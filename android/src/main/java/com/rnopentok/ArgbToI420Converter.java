@@ -0,0 +1,127 @@
+package com.rnopentok;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocation-free conversion of 32-bit pixels to I420 using BT.601 limited range
+ * integer coefficients. Chroma is averaged over each 2x2 block, so width and height
+ * must be even.
+ */
+final class ArgbToI420Converter {
+    private ArgbToI420Converter() {}
+
+    static int frameSize(int width, int height) {
+        return width * height + 2 * ((width / 2) * (height / 2));
+    }
+
+    /**
+     * Converts Android bitmap memory (R, G, B, A bytes per pixel) starting at the
+     * position of {@code src} into I420 planes written at the position of {@code dst}.
+     */
+    static void convert(ByteBuffer src, int width, int height, int stride, ByteBuffer dst) {
+        checkSize(width, height);
+        boolean littleEndian = src.order() == ByteOrder.LITTLE_ENDIAN;
+        int rShift = littleEndian ? 0 : 24;
+        int gShift = littleEndian ? 8 : 16;
+        int bShift = littleEndian ? 16 : 8;
+
+        int srcBase = src.position();
+        int yBase = dst.position();
+        int uBase = yBase + width * height;
+        int vBase = uBase + (width / 2) * (height / 2);
+        int chromaWidth = width / 2;
+
+        for (int y = 0; y < height; y += 2) {
+            int row0 = srcBase + y * stride;
+            int row1 = row0 + stride;
+            int yRow0 = yBase + y * width;
+            int yRow1 = yRow0 + width;
+            int cRow = (y / 2) * chromaWidth;
+
+            for (int x = 0; x < width; x += 2) {
+                int p00 = src.getInt(row0 + x * 4);
+                int p01 = src.getInt(row0 + x * 4 + 4);
+                int p10 = src.getInt(row1 + x * 4);
+                int p11 = src.getInt(row1 + x * 4 + 4);
+
+                int r00 = (p00 >>> rShift) & 0xff, g00 = (p00 >>> gShift) & 0xff, b00 = (p00 >>> bShift) & 0xff;
+                int r01 = (p01 >>> rShift) & 0xff, g01 = (p01 >>> gShift) & 0xff, b01 = (p01 >>> bShift) & 0xff;
+                int r10 = (p10 >>> rShift) & 0xff, g10 = (p10 >>> gShift) & 0xff, b10 = (p10 >>> bShift) & 0xff;
+                int r11 = (p11 >>> rShift) & 0xff, g11 = (p11 >>> gShift) & 0xff, b11 = (p11 >>> bShift) & 0xff;
+
+                dst.put(yRow0 + x, luma(r00, g00, b00));
+                dst.put(yRow0 + x + 1, luma(r01, g01, b01));
+                dst.put(yRow1 + x, luma(r10, g10, b10));
+                dst.put(yRow1 + x + 1, luma(r11, g11, b11));
+
+                int r = (r00 + r01 + r10 + r11 + 2) >> 2;
+                int g = (g00 + g01 + g10 + g11 + 2) >> 2;
+                int b = (b00 + b01 + b10 + b11 + 2) >> 2;
+                dst.put(uBase + cRow + x / 2, chromaU(r, g, b));
+                dst.put(vBase + cRow + x / 2, chromaV(r, g, b));
+            }
+        }
+    }
+
+    /**
+     * Converts {@code ARGB} ints, as returned by {@code Bitmap.getPixels}, into I420
+     * planes written at the position of {@code dst}. The stride is in pixels.
+     */
+    static void convert(int[] src, int width, int height, int stride, ByteBuffer dst) {
+        checkSize(width, height);
+        int yBase = dst.position();
+        int uBase = yBase + width * height;
+        int vBase = uBase + (width / 2) * (height / 2);
+        int chromaWidth = width / 2;
+
+        for (int y = 0; y < height; y += 2) {
+            int row0 = y * stride;
+            int row1 = row0 + stride;
+            int yRow0 = yBase + y * width;
+            int yRow1 = yRow0 + width;
+            int cRow = (y / 2) * chromaWidth;
+
+            for (int x = 0; x < width; x += 2) {
+                int p00 = src[row0 + x];
+                int p01 = src[row0 + x + 1];
+                int p10 = src[row1 + x];
+                int p11 = src[row1 + x + 1];
+
+                int r00 = (p00 >>> 16) & 0xff, g00 = (p00 >>> 8) & 0xff, b00 = p00 & 0xff;
+                int r01 = (p01 >>> 16) & 0xff, g01 = (p01 >>> 8) & 0xff, b01 = p01 & 0xff;
+                int r10 = (p10 >>> 16) & 0xff, g10 = (p10 >>> 8) & 0xff, b10 = p10 & 0xff;
+                int r11 = (p11 >>> 16) & 0xff, g11 = (p11 >>> 8) & 0xff, b11 = p11 & 0xff;
+
+                dst.put(yRow0 + x, luma(r00, g00, b00));
+                dst.put(yRow0 + x + 1, luma(r01, g01, b01));
+                dst.put(yRow1 + x, luma(r10, g10, b10));
+                dst.put(yRow1 + x + 1, luma(r11, g11, b11));
+
+                int r = (r00 + r01 + r10 + r11 + 2) >> 2;
+                int g = (g00 + g01 + g10 + g11 + 2) >> 2;
+                int b = (b00 + b01 + b10 + b11 + 2) >> 2;
+                dst.put(uBase + cRow + x / 2, chromaU(r, g, b));
+                dst.put(vBase + cRow + x / 2, chromaV(r, g, b));
+            }
+        }
+    }
+
+    private static void checkSize(int width, int height) {
+        if ((width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("I420 needs even dimensions, got " + width + "x" + height);
+        }
+    }
+
+    private static byte luma(int r, int g, int b) {
+        return (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+    }
+
+    private static byte chromaU(int r, int g, int b) {
+        return (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+    }
+
+    private static byte chromaV(int r, int g, int b) {
+        return (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+    }
+}
@@ -0,0 +1,76 @@
+package com.rnopentok;
+
+/**
+ * Picks the camera output size and frame rate range closest to the requested ones.
+ * Sizes with the requested aspect ratio win; among them the smallest one covering the
+ * requested size, or the largest one when none does, so frames are only scaled down.
+ */
+final class CaptureFormat {
+    private static final double ASPECT_TOLERANCE = 0.05;
+
+    private CaptureFormat() {}
+
+    /**
+     * @param sizes {@code {width, height}} pairs
+     * @return index of the chosen size, or -1 when there are none
+     */
+    static int chooseSize(int[][] sizes, int width, int height) {
+        int best = chooseSize(sizes, width, height, true);
+        return best != -1 ? best : chooseSize(sizes, width, height, false);
+    }
+
+    private static int chooseSize(int[][] sizes, int width, int height, boolean sameAspect) {
+        double aspect = (double) width / height;
+        int best = -1;
+        for (int i = 0; i < sizes.length; i++) {
+            int[] size = sizes[i];
+            if (sameAspect && Math.abs((double) size[0] / size[1] - aspect) > ASPECT_TOLERANCE) {
+                continue;
+            }
+            if (best == -1 || isBetter(size, sizes[best], width, height)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isBetter(int[] size, int[] best, int width, int height) {
+        boolean covers = size[0] >= width && size[1] >= height;
+        boolean bestCovers = best[0] >= width && best[1] >= height;
+        if (covers != bestCovers) {
+            return covers;
+        }
+        long area = (long) size[0] * size[1];
+        long bestArea = (long) best[0] * best[1];
+        return covers ? area < bestArea : area > bestArea;
+    }
+
+    /**
+     * Narrowest range reaching {@code fps}, preferring a fixed rate, or the fastest range
+     * when none does. Ranges and rate must use the same unit.
+     *
+     * @param ranges {@code {min, max}} pairs
+     * @return index of the chosen range, or -1 when there are none
+     */
+    static int chooseFpsRange(int[][] ranges, int fps) {
+        int best = -1;
+        for (int i = 0; i < ranges.length; i++) {
+            int[] range = ranges[i];
+            if (range[1] < fps) {
+                continue;
+            }
+            if (best == -1 || range[1] < ranges[best][1] || (range[1] == ranges[best][1] && range[0] > ranges[best][0])) {
+                best = i;
+            }
+        }
+        if (best != -1) {
+            return best;
+        }
+        for (int i = 0; i < ranges.length; i++) {
+            if (best == -1 || ranges[i][1] > ranges[best][1]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
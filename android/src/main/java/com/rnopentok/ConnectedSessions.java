@@ -0,0 +1,78 @@
+package com.rnopentok;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * The state of each connected session, keyed by sessionId. A {@link State} is built
+ * whole before it is registered, so an SDK callback that finds the state of a session
+ * also finds its codec and outbox, and it leaves the registry whole: connecting again
+ * replaces it and disconnecting removes it, each in a single {@link SessionRegistry}
+ * operation. The state that left is released right after, in {@link #release}, exactly
+ * once. Sessions are typed by the caller, so this is plain Java.
+ */
+final class ConnectedSessions<S, C> {
+    static final class State<S, C> {
+        final S session;
+        final C codec;
+        final RNOpenTokSignalOutbox outbox;
+        final ActiveSpeakerDetector speakers = new ActiveSpeakerDetector();
+        final VideoSlotPolicy videoPolicy = new VideoSlotPolicy();
+
+        State(S session, C codec, RNOpenTokSignalOutbox outbox) {
+            this.session = session;
+            this.codec = codec;
+            this.outbox = outbox;
+        }
+    }
+
+    interface Listener<S> {
+        /** Called once for every session that was replaced or disconnected. */
+        void onSessionReleased(S session);
+    }
+
+    private final SessionRegistry<State<S, C>> mStates = new SessionRegistry<>();
+    private final Listener<S> mListener;
+
+    ConnectedSessions(Listener<S> listener) {
+        mListener = listener;
+    }
+
+    /** Registers the state of a new connection and releases the one it replaced. */
+    void connect(String id, State<S, C> state) {
+        release(mStates.register(id, state));
+    }
+
+    /** Returns the state that was removed and released, or null. */
+    State<S, C> disconnect(String id) {
+        State<S, C> state = mStates.unregister(id);
+        release(state);
+        return state;
+    }
+
+    State<S, C> get(String id) {
+        return mStates.get(id);
+    }
+
+    /** Whether the session was neither replaced nor disconnected. */
+    boolean isCurrent(String id, S session) {
+        State<S, C> state = mStates.get(id);
+        return state != null && state.session == session;
+    }
+
+    Set<String> getIds() {
+        return mStates.getIds();
+    }
+
+    Collection<State<S, C>> getStates() {
+        return mStates.getEntries();
+    }
+
+    private void release(State<S, C> state) {
+        if (state == null) {
+            return;
+        }
+        state.outbox.close();
+        mListener.onSessionReleased(state.session);
+    }
+}
@@ -4,9 +4,14 @@ enum Events {
     EVENT_PUBLISH_START("onPublishStart"),
     EVENT_PUBLISH_STOP("onPublishStop"),
     EVENT_PUBLISH_ERROR("onPublishError"),
+    EVENT_SCREEN_CAPTURE_STATS("onScreenCaptureStats"),
+    EVENT_SCREEN_CAPTURE_STOP("onScreenCaptureStop"),
+    EVENT_PUBLISHER_METRICS("onPublisherMetrics"),
+    EVENT_PUBLISHER_STATS("onPublisherStats"),
     EVENT_SUBSCRIBE_START("onSubscribeStart"),
     EVENT_SUBSCRIBE_STOP("onSubscribeStop"),
     EVENT_SUBSCRIBE_ERROR("onSubscribeError"),
+    EVENT_SUBSCRIBER_STATS("onSubscriberStats"),
     EVENT_ON_SIGNAL_RECEIVED("onSignalReceived"),
     ON_ARCHIVE_STARTED_WITH_ID("onArchiveStartedWithId"),
     ON_ARCHIVE_STOPPED_WITH_ID("onArchiveStoppedWithId"),
@@ -19,7 +24,11 @@ enum Events {
     ON_SESSION_DID_FAIL_WITH_ERROR("onSessionDidFailWithError"),
     ON_SESSION_STREAM_CREATED("onSessionStreamCreated"),
     ON_SESSION_STREAM_DESTROYED("onSessionStreamDestroyed"),
-    ERROR_NO_SCREEN_CAPTURE_VIEW("errorNoScreenCaptureView");
+    ON_ACTIVE_SPEAKER_CHANGED("onActiveSpeakerChanged"),
+    ON_VIDEO_STREAMS_CHANGED("onVideoStreamsChanged"),
+    ERROR_NO_SCREEN_CAPTURE_VIEW("errorNoScreenCaptureView"),
+    ERROR_NO_SCREEN_CAPTURE_PERMISSION("errorNoScreenCapturePermission"),
+    EVENT_BATCH("onEventBatch");
 
 
     private final String mName;
@@ -0,0 +1,82 @@
+package com.rnopentok;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/**
+ * Small pool of direct buffers used to hand frames to the SDK without
+ * allocating a new array for every frame. Buffers larger than requested are
+ * reused with a reduced limit, so shrinking a view never allocates.
+ */
+final class FrameBufferPool {
+    private final int mMaxPooled;
+    private final ArrayDeque<ByteBuffer> mFree = new ArrayDeque<>();
+
+    private long mAllocations = 0;
+    private long mReuses = 0;
+
+    FrameBufferPool(int maxPooled) {
+        mMaxPooled = maxPooled;
+    }
+
+    synchronized ByteBuffer acquire(int size) {
+        ByteBuffer best = null;
+        for (ByteBuffer buffer : mFree) {
+            if (buffer.capacity() >= size && (best == null || buffer.capacity() < best.capacity())) {
+                best = buffer;
+            }
+        }
+
+        if (best != null) {
+            mFree.remove(best);
+            mReuses++;
+        } else {
+            best = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            mAllocations++;
+        }
+
+        best.clear();
+        best.limit(size);
+        return best;
+    }
+
+    synchronized void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (mFree.size() >= mMaxPooled) {
+            ByteBuffer smallest = buffer;
+            for (ByteBuffer candidate : mFree) {
+                if (candidate.capacity() < smallest.capacity()) {
+                    smallest = candidate;
+                }
+            }
+            if (smallest == buffer) {
+                return;
+            }
+            mFree.remove(smallest);
+        }
+        mFree.add(buffer);
+    }
+
+    synchronized void clear() {
+        mFree.clear();
+    }
+
+    synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    synchronized long getReuseCount() {
+        return mReuses;
+    }
+
+    synchronized long getPooledBytes() {
+        long total = 0;
+        for (ByteBuffer buffer : mFree) {
+            total += buffer.capacity();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,107 @@
+package com.rnopentok;
+
+/**
+ * Frame scheduler working on absolute deadlines, so the frame rate does not drift with
+ * the time spent capturing. Deadlines that already passed are skipped rather than
+ * queued. When the measured capture time no longer fits the frame budget the rate is
+ * lowered, and it is raised again step by step once capturing gets cheap.
+ *
+ * Times are milliseconds on the caller's clock.
+ */
+final class FrameClock {
+    private static final double COST_SMOOTHING = 0.2;
+    private static final double OVERLOAD_RATIO = 0.9;
+    private static final double RECOVER_RATIO = 0.5;
+    private static final long DECREASE_DELAY = 1000;
+    private static final long INCREASE_DELAY = 2000;
+
+    private final int mTargetFps;
+    private final int mMinFps;
+    private final boolean mAdaptive;
+
+    private int mFps;
+    private double mNextDeadline;
+    private long mLastChange;
+
+    private double mCostAverage = 0;
+    private long mDroppedFrames = 0;
+
+    FrameClock(int targetFps, int minFps, boolean adaptive) {
+        mTargetFps = Math.max(1, targetFps);
+        mMinFps = Math.max(1, Math.min(minFps, mTargetFps));
+        mAdaptive = adaptive;
+        mFps = mTargetFps;
+    }
+
+    synchronized void start(long now) {
+        mNextDeadline = now + interval();
+        mLastChange = now;
+    }
+
+    /** Time at which the next frame should be captured. */
+    synchronized long nextDeadline() {
+        return (long) Math.ceil(mNextDeadline);
+    }
+
+    /**
+     * Advances to the deadline following {@code now}. Returns the number of frames
+     * that were skipped because their deadline passed before they could run.
+     */
+    synchronized int tick(long now) {
+        double interval = interval();
+        int skipped = 0;
+        if (now >= mNextDeadline + interval) {
+            skipped = (int) ((now - mNextDeadline) / interval);
+            mNextDeadline += skipped * interval;
+            mDroppedFrames += skipped;
+        }
+        mNextDeadline += interval;
+        return skipped;
+    }
+
+    /** Reports how long capturing and delivering one frame took. */
+    synchronized void onFrameCost(double costMs, long now) {
+        mCostAverage = mCostAverage == 0
+                ? costMs
+                : mCostAverage + COST_SMOOTHING * (costMs - mCostAverage);
+
+        if (!mAdaptive) {
+            return;
+        }
+
+        double budget = interval();
+        if (mCostAverage > budget * OVERLOAD_RATIO && mFps > mMinFps && now - mLastChange >= DECREASE_DELAY) {
+            int affordable = (int) Math.floor(1000.0 / (mCostAverage / OVERLOAD_RATIO));
+            setFps(Math.max(mMinFps, Math.min(mFps - 1, affordable)), now);
+        } else if (mCostAverage < budget * RECOVER_RATIO && mFps < mTargetFps && now - mLastChange >= INCREASE_DELAY) {
+            setFps(mFps + 1, now);
+        }
+    }
+
+    synchronized int getFps() {
+        return mFps;
+    }
+
+    synchronized int getTargetFps() {
+        return mTargetFps;
+    }
+
+    synchronized long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    synchronized double getAverageCost() {
+        return mCostAverage;
+    }
+
+    private void setFps(int fps, long now) {
+        double previousDeadline = mNextDeadline - interval();
+        mFps = fps;
+        mNextDeadline = previousDeadline + interval();
+        mLastChange = now;
+    }
+
+    private double interval() {
+        return 1000.0 / mFps;
+    }
+}
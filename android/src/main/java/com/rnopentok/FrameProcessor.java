@@ -0,0 +1,22 @@
+package com.rnopentok;
+
+/**
+ * Transform applied to published video frames before they reach the encoder, see
+ * {@link FrameProcessorChain}. Built-in ones are in {@link FrameProcessors}.
+ */
+interface FrameProcessor {
+    /** Name reported in the processor stats. */
+    String getName();
+
+    /**
+     * Whether frames have to go through this processor, e.g. one hiding something. A
+     * frame that a required processor has no time for is dropped instead of sent.
+     */
+    boolean isRequired();
+
+    /**
+     * Changes the frame in place. It may shrink the frame, keeping width and height
+     * even, but never grow it.
+     */
+    void process(I420Frame frame);
+}
@@ -0,0 +1,103 @@
+package com.rnopentok;
+
+import java.util.List;
+
+/**
+ * Runs {@link FrameProcessor}s in order on each frame and times every one of them.
+ * A processor whose expected cost no longer fits in what is left of the frame budget
+ * is skipped for that frame, so one slow processor costs a transform instead of
+ * stalling capture. Time is kept for the required processors still to come, and
+ * when one of them does not fit the whole frame is dropped, so e.g. a mask never
+ * leaks. The estimate of a skipped processor decays, so it is retried once there is
+ * room again.
+ */
+final class FrameProcessorChain {
+    private static final double COST_SMOOTHING = 0.2;
+    private static final double SKIPPED_COST_DECAY = 0.9;
+
+    private static final class Stage {
+        final FrameProcessor processor;
+        double averageMs = 0;
+        double lastMs = 0;
+        double maxMs = 0;
+        long runs = 0;
+        long skips = 0;
+
+        Stage(FrameProcessor processor) {
+            this.processor = processor;
+        }
+
+        double expectedMs() {
+            return Math.max(averageMs, lastMs);
+        }
+    }
+
+    private final Stage[] mStages;
+
+    FrameProcessorChain(List<FrameProcessor> processors) {
+        mStages = new Stage[processors.size()];
+        for (int i = 0; i < mStages.length; i++) {
+            mStages[i] = new Stage(processors.get(i));
+        }
+    }
+
+    /** Returns false when a required processor was skipped and the frame must not be sent. */
+    synchronized boolean process(I420Frame frame, double budgetMs) {
+        long start = System.nanoTime();
+        double reservedMs = 0;
+        for (Stage stage : mStages) {
+            if (stage.processor.isRequired()) {
+                reservedMs += stage.expectedMs();
+            }
+        }
+        for (Stage stage : mStages) {
+            boolean required = stage.processor.isRequired();
+            if (required) {
+                reservedMs -= stage.expectedMs();
+            }
+            double elapsedMs = (System.nanoTime() - start) / 1e6;
+            if (stage.runs > 0 && elapsedMs + stage.expectedMs() + reservedMs > budgetMs) {
+                stage.skips++;
+                stage.averageMs *= SKIPPED_COST_DECAY;
+                stage.lastMs *= SKIPPED_COST_DECAY;
+                if (required) {
+                    return false;
+                }
+                continue;
+            }
+
+            long stageStart = System.nanoTime();
+            stage.processor.process(frame);
+            double costMs = (System.nanoTime() - stageStart) / 1e6;
+            stage.averageMs = stage.runs == 0 ? costMs : stage.averageMs + COST_SMOOTHING * (costMs - stage.averageMs);
+            stage.lastMs = costMs;
+            stage.maxMs = Math.max(stage.maxMs, costMs);
+            stage.runs++;
+        }
+        return true;
+    }
+
+    int size() {
+        return mStages.length;
+    }
+
+    synchronized String getName(int index) {
+        return mStages[index].processor.getName();
+    }
+
+    synchronized long getRunCount(int index) {
+        return mStages[index].runs;
+    }
+
+    synchronized long getSkipCount(int index) {
+        return mStages[index].skips;
+    }
+
+    synchronized double getAverageMs(int index) {
+        return mStages[index].averageMs;
+    }
+
+    synchronized double getMaxMs(int index) {
+        return mStages[index].maxMs;
+    }
+}
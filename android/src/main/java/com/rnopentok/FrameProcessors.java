@@ -0,0 +1,247 @@
+package com.rnopentok;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Built-in {@link FrameProcessor}s. Regions are given as fractions of the frame, so
+ * they keep working when the capture size changes; they are aligned to even pixels
+ * so the chroma planes line up. All of them work on the frame's own buffer.
+ */
+final class FrameProcessors {
+    private static final byte BLACK_LUMA = 16;
+    private static final byte NEUTRAL_CHROMA = (byte) 128;
+
+    private FrameProcessors() {}
+
+    /** Pixel region of a frame, computed from fractions. */
+    private static final class Region {
+        int left;
+        int top;
+        int width;
+        int height;
+
+        void set(I420Frame frame, double x, double y, double width, double height) {
+            left = clampEven(x * frame.width, 0, frame.width - 2);
+            top = clampEven(y * frame.height, 0, frame.height - 2);
+            this.width = clampEven(width * frame.width, 2, frame.width - left);
+            this.height = clampEven(height * frame.height, 2, frame.height - top);
+        }
+
+        private static int clampEven(double value, int min, int max) {
+            return Math.max(min, Math.min(max, (int) Math.round(value) & ~1));
+        }
+    }
+
+    /** Keeps only a region of the frame. */
+    static final class Crop implements FrameProcessor {
+        private final double mX, mY, mWidth, mHeight;
+        private final Region mRegion = new Region();
+        private byte[] mRow = new byte[0];
+
+        Crop(double x, double y, double width, double height) {
+            mX = x;
+            mY = y;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public String getName() {
+            return "crop";
+        }
+
+        @Override
+        public boolean isRequired() {
+            return false;
+        }
+
+        @Override
+        public void process(I420Frame frame) {
+            Region region = mRegion;
+            region.set(frame, mX, mY, mWidth, mHeight);
+            if (region.width == frame.width && region.height == frame.height) {
+                return;
+            }
+            if (mRow.length < region.width) {
+                mRow = new byte[region.width];
+            }
+
+            // Every row moves towards the start of the buffer, so copying rows in order
+            // never overwrites data that was not read yet.
+            ByteBuffer buffer = frame.buffer;
+            int uOffset = frame.uOffset();
+            int vOffset = frame.vOffset();
+            int lumaSize = region.width * region.height;
+            int chromaSize = (region.width / 2) * (region.height / 2);
+            copyRegion(buffer, 0, frame.width, region.left, region.top, region.width, region.height, 0);
+            copyRegion(buffer, uOffset, frame.width / 2, region.left / 2, region.top / 2,
+                    region.width / 2, region.height / 2, lumaSize);
+            copyRegion(buffer, vOffset, frame.width / 2, region.left / 2, region.top / 2,
+                    region.width / 2, region.height / 2, lumaSize + chromaSize);
+
+            frame.width = region.width;
+            frame.height = region.height;
+            buffer.position(0);
+            buffer.limit(lumaSize + 2 * chromaSize);
+        }
+
+        private void copyRegion(ByteBuffer buffer, int planeOffset, int stride, int left, int top,
+                                int width, int height, int dstOffset) {
+            for (int row = 0; row < height; row++) {
+                buffer.limit(buffer.capacity());
+                buffer.position(planeOffset + (top + row) * stride + left);
+                buffer.get(mRow, 0, width);
+                buffer.position(dstOffset + row * width);
+                buffer.put(mRow, 0, width);
+            }
+        }
+    }
+
+    /** Flips the frame horizontally. */
+    static final class Mirror implements FrameProcessor {
+        @Override
+        public String getName() {
+            return "mirror";
+        }
+
+        @Override
+        public boolean isRequired() {
+            return false;
+        }
+
+        @Override
+        public void process(I420Frame frame) {
+            mirrorPlane(frame.buffer, 0, frame.width, frame.height);
+            mirrorPlane(frame.buffer, frame.uOffset(), frame.width / 2, frame.height / 2);
+            mirrorPlane(frame.buffer, frame.vOffset(), frame.width / 2, frame.height / 2);
+        }
+
+        private static void mirrorPlane(ByteBuffer buffer, int offset, int width, int height) {
+            for (int row = 0; row < height; row++) {
+                int left = offset + row * width;
+                int right = left + width - 1;
+                while (left < right) {
+                    byte value = buffer.get(left);
+                    buffer.put(left++, buffer.get(right));
+                    buffer.put(right--, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Shrinks the frame to fit in {@code maxWidth} x {@code maxHeight}, keeping the aspect
+     * ratio. Each pixel is the mean of the pixels it covers.
+     */
+    static final class Downscale implements FrameProcessor {
+        private final int mMaxWidth;
+        private final int mMaxHeight;
+
+        Downscale(int maxWidth, int maxHeight) {
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
+        }
+
+        @Override
+        public String getName() {
+            return "downscale";
+        }
+
+        @Override
+        public boolean isRequired() {
+            return false;
+        }
+
+        @Override
+        public void process(I420Frame frame) {
+            long size = FrameScaler.fitSize(frame.width, frame.height, mMaxWidth, mMaxHeight, true);
+            int width = FrameScaler.fitWidth(size);
+            int height = FrameScaler.fitHeight(size);
+            if (width == frame.width && height == frame.height) {
+                return;
+            }
+
+            // An output pixel never lies after the first input pixel it covers, and planes
+            // only move towards the start, so the frame can be scaled in place.
+            ByteBuffer buffer = frame.buffer;
+            int uOffset = frame.uOffset();
+            int vOffset = frame.vOffset();
+            int lumaSize = width * height;
+            int chromaSize = (width / 2) * (height / 2);
+            buffer.limit(buffer.capacity());
+            scalePlane(buffer, 0, frame.width, frame.height, 0, width, height);
+            scalePlane(buffer, uOffset, frame.width / 2, frame.height / 2, lumaSize, width / 2, height / 2);
+            scalePlane(buffer, vOffset, frame.width / 2, frame.height / 2, lumaSize + chromaSize, width / 2, height / 2);
+
+            frame.width = width;
+            frame.height = height;
+            buffer.position(0);
+            buffer.limit(lumaSize + 2 * chromaSize);
+        }
+
+        private static void scalePlane(ByteBuffer buffer, int srcOffset, int srcWidth, int srcHeight,
+                                       int dstOffset, int dstWidth, int dstHeight) {
+            for (int y = 0; y < dstHeight; y++) {
+                int top = y * srcHeight / dstHeight;
+                int bottom = Math.max(top + 1, (y + 1) * srcHeight / dstHeight);
+                for (int x = 0; x < dstWidth; x++) {
+                    int left = x * srcWidth / dstWidth;
+                    int right = Math.max(left + 1, (x + 1) * srcWidth / dstWidth);
+                    int sum = 0;
+                    for (int row = top; row < bottom; row++) {
+                        int base = srcOffset + row * srcWidth;
+                        for (int col = left; col < right; col++) {
+                            sum += buffer.get(base + col) & 0xff;
+                        }
+                    }
+                    int count = (bottom - top) * (right - left);
+                    buffer.put(dstOffset + y * dstWidth + x, (byte) ((sum + count / 2) / count));
+                }
+            }
+        }
+    }
+
+    /** Paints a region of the frame black, e.g. to hide a document or a face. */
+    static final class Mask implements FrameProcessor {
+        private final double mX, mY, mWidth, mHeight;
+        private final Region mRegion = new Region();
+
+        Mask(double x, double y, double width, double height) {
+            mX = x;
+            mY = y;
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public String getName() {
+            return "mask";
+        }
+
+        @Override
+        public boolean isRequired() {
+            return true;
+        }
+
+        @Override
+        public void process(I420Frame frame) {
+            Region region = mRegion;
+            region.set(frame, mX, mY, mWidth, mHeight);
+            fill(frame.buffer, 0, frame.width, region.left, region.top, region.width, region.height, BLACK_LUMA);
+            fill(frame.buffer, frame.uOffset(), frame.width / 2, region.left / 2, region.top / 2,
+                    region.width / 2, region.height / 2, NEUTRAL_CHROMA);
+            fill(frame.buffer, frame.vOffset(), frame.width / 2, region.left / 2, region.top / 2,
+                    region.width / 2, region.height / 2, NEUTRAL_CHROMA);
+        }
+
+        private static void fill(ByteBuffer buffer, int offset, int stride, int left, int top,
+                                 int width, int height, byte value) {
+            for (int row = top; row < top + height; row++) {
+                int base = offset + row * stride + left;
+                for (int col = 0; col < width; col++) {
+                    buffer.put(base + col, value);
+                }
+            }
+        }
+    }
+}
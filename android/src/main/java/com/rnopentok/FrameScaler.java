@@ -0,0 +1,123 @@
+package com.rnopentok;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Area-averaging downscaler for frames of 4-byte pixels. Each destination pixel is
+ * the mean of the source pixels it covers, channel by channel, so the byte order of
+ * the pixels is preserved. Work buffers are kept between frames and only grow.
+ */
+final class FrameScaler {
+    private int[] mColumnMap = new int[0];
+    private int[] mColumnCount = new int[0];
+    private int[] mAccumulator = new int[0];
+
+    private int mMappedSrcWidth = -1;
+    private int mMappedDstWidth = -1;
+
+    /**
+     * Computes the largest size fitting in {@code maxWidth} x {@code maxHeight} that keeps
+     * the aspect ratio of the source. A non-positive bound means unbounded. The result
+     * is never larger than the source and is rounded down to even numbers when
+     * {@code even} is set, as required by I420.
+     *
+     * @return width in the upper 32 bits and height in the lower 32 bits.
+     */
+    static long fitSize(int width, int height, int maxWidth, int maxHeight, boolean even) {
+        double scale = 1.0;
+        if (maxWidth > 0 && width > maxWidth) {
+            scale = Math.min(scale, (double) maxWidth / width);
+        }
+        if (maxHeight > 0 && height > maxHeight) {
+            scale = Math.min(scale, (double) maxHeight / height);
+        }
+
+        int outWidth = Math.max(1, (int) Math.round(width * scale));
+        int outHeight = Math.max(1, (int) Math.round(height * scale));
+        if (even) {
+            outWidth = Math.max(2, outWidth & ~1);
+            outHeight = Math.max(2, outHeight & ~1);
+        }
+        return ((long) outWidth << 32) | (outHeight & 0xffffffffL);
+    }
+
+    static int fitWidth(long size) {
+        return (int) (size >>> 32);
+    }
+
+    static int fitHeight(long size) {
+        return (int) size;
+    }
+
+    /**
+     * Scales {@code src} (starting at its position) into {@code dst} (starting at its
+     * position). The destination must not be larger than the source.
+     */
+    void scale(ByteBuffer src, int srcWidth, int srcHeight, int srcStride,
+               ByteBuffer dst, int dstWidth, int dstHeight, int dstStride) {
+        if (dstWidth > srcWidth || dstHeight > srcHeight) {
+            throw new IllegalArgumentException("FrameScaler only scales down");
+        }
+        mapColumns(srcWidth, dstWidth);
+
+        int srcBase = src.position();
+        int dstBase = dst.position();
+        int[] columnMap = mColumnMap;
+        int[] columnCount = mColumnCount;
+        int[] acc = mAccumulator;
+
+        int sy = 0;
+        for (int dy = 0; dy < dstHeight; dy++) {
+            int syEnd = (int) ((long) (dy + 1) * srcHeight / dstHeight);
+            int rows = syEnd - sy;
+
+            Arrays.fill(acc, 0, dstWidth * 4, 0);
+            for (; sy < syEnd; sy++) {
+                int rowStart = srcBase + sy * srcStride;
+                for (int sx = 0; sx < srcWidth; sx++) {
+                    int pixel = src.getInt(rowStart + sx * 4);
+                    int a = columnMap[sx] * 4;
+                    acc[a] += pixel & 0xff;
+                    acc[a + 1] += (pixel >>> 8) & 0xff;
+                    acc[a + 2] += (pixel >>> 16) & 0xff;
+                    acc[a + 3] += pixel >>> 24;
+                }
+            }
+
+            int dstRow = dstBase + dy * dstStride;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                int count = columnCount[dx] * rows;
+                int half = count >> 1;
+                int a = dx * 4;
+                int pixel = ((acc[a] + half) / count)
+                        | (((acc[a + 1] + half) / count) << 8)
+                        | (((acc[a + 2] + half) / count) << 16)
+                        | (((acc[a + 3] + half) / count) << 24);
+                dst.putInt(dstRow + dx * 4, pixel);
+            }
+        }
+    }
+
+    private void mapColumns(int srcWidth, int dstWidth) {
+        if (srcWidth == mMappedSrcWidth && dstWidth == mMappedDstWidth) {
+            return;
+        }
+        if (mColumnMap.length < srcWidth) {
+            mColumnMap = new int[srcWidth];
+        }
+        if (mColumnCount.length < dstWidth) {
+            mColumnCount = new int[dstWidth];
+            mAccumulator = new int[dstWidth * 4];
+        }
+
+        Arrays.fill(mColumnCount, 0, dstWidth, 0);
+        for (int sx = 0; sx < srcWidth; sx++) {
+            int dx = (int) ((long) sx * dstWidth / srcWidth);
+            mColumnMap[sx] = dx;
+            mColumnCount[dx]++;
+        }
+        mMappedSrcWidth = srcWidth;
+        mMappedDstWidth = dstWidth;
+    }
+}
@@ -0,0 +1,146 @@
+package com.rnopentok;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Detects changed regions between consecutive frames by hashing fixed-size
+ * tiles of 32-bit pixels and comparing them against the previous frame.
+ */
+final class FrameTileDiffer {
+    private final int mTileSize;
+
+    private int mWidth = 0;
+    private int mHeight = 0;
+    private int mTilesX = 0;
+    private int mTilesY = 0;
+    private long[] mHashes = new long[0];
+    private long[] mScratch = new long[0];
+
+    private int mLastDirtyTiles = 0;
+    private long mFrames = 0;
+    private long mChangedFrames = 0;
+    private long mDirtyTiles = 0;
+    private long mTiles = 0;
+
+    FrameTileDiffer(int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Invalid tile size " + tileSize);
+        }
+        mTileSize = tileSize;
+    }
+
+    /**
+     * Hashes a frame of 4-byte pixels starting at the buffer's position and
+     * returns the number of tiles that differ from the previous frame.
+     */
+    int update(ByteBuffer frame, int width, int height, int rowStride) {
+        boolean resized = prepare(width, height);
+        int base = frame.position();
+
+        Arrays.fill(mScratch, 0, mTilesX * mTilesY, 0);
+        for (int y = 0; y < height; y++) {
+            int tileRow = (y / mTileSize) * mTilesX;
+            int rowStart = base + y * rowStride;
+            for (int tx = 0; tx < mTilesX; tx++) {
+                int x0 = tx * mTileSize;
+                int x1 = Math.min(x0 + mTileSize, width);
+                long hash = mScratch[tileRow + tx];
+                for (int offset = rowStart + x0 * 4, end = rowStart + x1 * 4; offset < end; offset += 4) {
+                    hash = hash * 31 + frame.getInt(offset);
+                }
+                mScratch[tileRow + tx] = hash;
+            }
+        }
+
+        return commit(resized);
+    }
+
+    /** Same as {@link #update(ByteBuffer, int, int, int)} for packed int pixels. */
+    int update(int[] frame, int width, int height) {
+        boolean resized = prepare(width, height);
+
+        Arrays.fill(mScratch, 0, mTilesX * mTilesY, 0);
+        for (int y = 0; y < height; y++) {
+            int tileRow = (y / mTileSize) * mTilesX;
+            int rowStart = y * width;
+            for (int tx = 0; tx < mTilesX; tx++) {
+                int x0 = tx * mTileSize;
+                int x1 = Math.min(x0 + mTileSize, width);
+                long hash = mScratch[tileRow + tx];
+                for (int i = rowStart + x0, end = rowStart + x1; i < end; i++) {
+                    hash = hash * 31 + frame[i];
+                }
+                mScratch[tileRow + tx] = hash;
+            }
+        }
+
+        return commit(resized);
+    }
+
+    void reset() {
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    int getLastDirtyTiles() {
+        return mLastDirtyTiles;
+    }
+
+    int getTileCount() {
+        return mTilesX * mTilesY;
+    }
+
+    long getFrameCount() {
+        return mFrames;
+    }
+
+    long getChangedFrameCount() {
+        return mChangedFrames;
+    }
+
+    /** Fraction of all hashed tiles that were dirty since the differ was created. */
+    double getDirtyRatio() {
+        return mTiles == 0 ? 0 : (double) mDirtyTiles / mTiles;
+    }
+
+    private boolean prepare(int width, int height) {
+        if (width == mWidth && height == mHeight) {
+            return false;
+        }
+        mWidth = width;
+        mHeight = height;
+        mTilesX = (width + mTileSize - 1) / mTileSize;
+        mTilesY = (height + mTileSize - 1) / mTileSize;
+
+        int tiles = mTilesX * mTilesY;
+        if (mHashes.length < tiles) {
+            mHashes = new long[tiles];
+            mScratch = new long[tiles];
+        }
+        return true;
+    }
+
+    private int commit(boolean resized) {
+        int tiles = mTilesX * mTilesY;
+        int dirty = 0;
+        for (int i = 0; i < tiles; i++) {
+            if (resized || mHashes[i] != mScratch[i]) {
+                dirty++;
+            }
+        }
+
+        long[] previous = mHashes;
+        mHashes = mScratch;
+        mScratch = previous;
+
+        mLastDirtyTiles = dirty;
+        mFrames++;
+        mTiles += tiles;
+        mDirtyTiles += dirty;
+        if (dirty > 0) {
+            mChangedFrames++;
+        }
+        return dirty;
+    }
+}
@@ -0,0 +1,56 @@
+package com.rnopentok;
+
+import java.nio.ByteBuffer;
+
+/**
+ * I420 frame held in one buffer: the Y plane followed by the U and V planes, without
+ * row padding. Width and height are even. Processors change the frame in place and
+ * may shrink it; the buffer keeps its capacity.
+ */
+final class I420Frame {
+    ByteBuffer buffer;
+    int width;
+    int height;
+    int rotation;
+    boolean mirror;
+    long capturedAt;
+
+    static int size(int width, int height) {
+        return ArgbToI420Converter.frameSize(width, height);
+    }
+
+    static boolean canHold(int width, int height) {
+        return width > 1 && height > 1 && width % 2 == 0 && height % 2 == 0;
+    }
+
+    int uOffset() {
+        return width * height;
+    }
+
+    int vOffset() {
+        return width * height + (width / 2) * (height / 2);
+    }
+
+    /** Copies tightly packed I420 starting at the position of {@code src}. */
+    static void copyI420(ByteBuffer src, int width, int height, ByteBuffer dst) {
+        ByteBuffer planes = src.duplicate();
+        planes.limit(planes.position() + size(width, height));
+        dst.clear();
+        dst.put(planes);
+        dst.flip();
+    }
+
+    /** Copies NV21, whose chroma is interleaved as V, U pairs, into I420 planes. */
+    static void copyNv21(byte[] src, int width, int height, ByteBuffer dst) {
+        int lumaSize = width * height;
+        int chromaSize = (width / 2) * (height / 2);
+        dst.clear();
+        dst.put(src, 0, lumaSize);
+        for (int i = 0; i < chromaSize; i++) {
+            dst.put(lumaSize + chromaSize + i, src[lumaSize + 2 * i]);
+            dst.put(lumaSize + i, src[lumaSize + 2 * i + 1]);
+        }
+        dst.position(0);
+        dst.limit(lumaSize + 2 * chromaSize);
+    }
+}
@@ -0,0 +1,88 @@
+package com.rnopentok;
+
+/**
+ * Rolling window over the cumulative packet and byte counters the SDK reports for
+ * one media track. Each report is turned into the bitrate and loss of the interval
+ * since the previous one; counters going backwards start a new baseline.
+ */
+final class MediaStatsWindow {
+    private final StatsRing mBitrate;
+    private final StatsRing mLossRatio;
+    private final StatsRing mLost;
+    private final StatsRing mPackets;
+
+    private boolean mHasBaseline = false;
+    private long mLastPackets;
+    private long mLastLost;
+    private long mLastBytes;
+    private double mLastTimestamp;
+
+    MediaStatsWindow(int samples) {
+        mBitrate = new StatsRing(samples);
+        mLossRatio = new StatsRing(samples);
+        mLost = new StatsRing(samples);
+        mPackets = new StatsRing(samples);
+    }
+
+    /**
+     * @param packets     packets sent or received so far
+     * @param lost        packets lost so far
+     * @param bytes       bytes sent or received so far
+     * @param timestampMs time of the report in milliseconds
+     */
+    void onSample(long packets, long lost, long bytes, double timestampMs) {
+        if (mHasBaseline && packets >= mLastPackets && lost >= mLastLost && bytes >= mLastBytes && timestampMs > mLastTimestamp) {
+            long packetsDelta = packets - mLastPackets;
+            long lostDelta = lost - mLastLost;
+            long total = packetsDelta + lostDelta;
+
+            mBitrate.add((bytes - mLastBytes) * 8 / (timestampMs - mLastTimestamp));
+            mLossRatio.add(total == 0 ? 0 : (double) lostDelta / total);
+            mLost.add(lostDelta);
+            mPackets.add(packetsDelta);
+        }
+
+        mHasBaseline = true;
+        mLastPackets = packets;
+        mLastLost = lost;
+        mLastBytes = bytes;
+        mLastTimestamp = timestampMs;
+    }
+
+    /** Ignores the next report as a delta, e.g. when the set of counters summed changed. */
+    void resetBaseline() {
+        mHasBaseline = false;
+    }
+
+    void clear() {
+        mHasBaseline = false;
+        mBitrate.clear();
+        mLossRatio.clear();
+        mLost.clear();
+        mPackets.clear();
+    }
+
+    int getSampleCount() {
+        return mBitrate.size();
+    }
+
+    /** Kilobits per second. */
+    double getBitrateMean() {
+        return mBitrate.mean();
+    }
+
+    double getBitrateP95() {
+        return mBitrate.percentile(0.95);
+    }
+
+    /** Packets lost over all packets of the window. */
+    double getLossRate() {
+        double lost = mLost.sum();
+        double total = lost + mPackets.sum();
+        return total == 0 ? 0 : lost / total;
+    }
+
+    double getLossRateP95() {
+        return mLossRatio.percentile(0.95);
+    }
+}
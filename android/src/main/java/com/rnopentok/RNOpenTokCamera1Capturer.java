@@ -0,0 +1,129 @@
+package com.rnopentok;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Camera source on the {@link Camera} API, for devices without full Camera2 support.
+ * Preview frames are handed to the SDK as NV21 from a few callback buffers that are
+ * reused for every frame.
+ */
+@SuppressWarnings("deprecation")
+class RNOpenTokCamera1Capturer extends RNOpenTokCameraCapturer implements Camera.PreviewCallback {
+    private static final int CALLBACK_BUFFERS = 3;
+
+    /* Owned by the camera thread */
+    private Camera mCamera;
+    private final Camera.CameraInfo mCameraInfo = new Camera.CameraInfo();
+    private SurfaceTexture mTexture;
+    private volatile int mFrameWidth;
+    private volatile int mFrameHeight;
+
+    RNOpenTokCamera1Capturer(Context context) {
+        super(context, NV21);
+    }
+
+    @Override
+    int findCameraIndex(boolean front) {
+        int facing = front ? Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+            Camera.getCameraInfo(i, info);
+            if (info.facing == facing) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    int getCameraCount() {
+        return Camera.getNumberOfCameras();
+    }
+
+    @Override
+    protected void openCamera(int index) throws IOException {
+        if (mCamera != null) {
+            return;
+        }
+        Camera.getCameraInfo(index, mCameraInfo);
+        mCamera = Camera.open(index);
+
+        Camera.Parameters parameters = mCamera.getParameters();
+        List<Camera.Size> sizes = parameters.getSupportedPreviewSizes();
+        int[][] candidates = new int[sizes.size()][];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = new int[] { sizes.get(i).width, sizes.get(i).height };
+        }
+        Camera.Size size = sizes.get(CaptureFormat.chooseSize(candidates, getPreferredWidth(), getPreferredHeight()));
+        parameters.setPreviewSize(size.width, size.height);
+        parameters.setPreviewFormat(ImageFormat.NV21);
+
+        int fps = getPreferredFps();
+        List<int[]> ranges = parameters.getSupportedPreviewFpsRange();
+        if (ranges != null && !ranges.isEmpty()) {
+            int[][] fpsRanges = new int[ranges.size()][];
+            for (int i = 0; i < fpsRanges.length; i++) {
+                int[] range = ranges.get(i);
+                fpsRanges[i] = new int[] { range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX], range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] };
+            }
+            int[] range = fpsRanges[CaptureFormat.chooseFpsRange(fpsRanges, fps * 1000)];
+            parameters.setPreviewFpsRange(range[0], range[1]);
+            fps = Math.min(fps, range[1] / 1000);
+        }
+
+        List<String> focusModes = parameters.getSupportedFocusModes();
+        if (focusModes != null && focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO)) {
+            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+        }
+        mCamera.setParameters(parameters);
+        mFrameWidth = size.width;
+        mFrameHeight = size.height;
+        setCaptureSize(size.width, size.height, fps);
+
+        int bufferSize = size.width * size.height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        for (int i = 0; i < CALLBACK_BUFFERS; i++) {
+            mCamera.addCallbackBuffer(new byte[bufferSize]);
+        }
+        mCamera.setPreviewCallbackWithBuffer(this);
+
+        // A preview only runs with a target; the frames are taken from the callback.
+        if (mTexture == null) {
+            mTexture = new SurfaceTexture(0);
+        }
+        mCamera.setPreviewTexture(mTexture);
+        mCamera.startPreview();
+    }
+
+    @Override
+    protected void closeCamera() {
+        if (mCamera != null) {
+            mCamera.stopPreview();
+            mCamera.setPreviewCallbackWithBuffer(null);
+            mCamera.release();
+            mCamera = null;
+        }
+        if (!isCapturing() && mTexture != null) {
+            mTexture.release();
+            mTexture = null;
+        }
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if (data == null) {
+            return;
+        }
+        if (isCapturing() && camera == mCamera) {
+            boolean front = mCameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+            provideFrame(data, NV21, mFrameWidth, mFrameHeight,
+                    getFrameRotation(mCameraInfo.orientation, front), front);
+        }
+        camera.addCallbackBuffer(data);
+    }
+}
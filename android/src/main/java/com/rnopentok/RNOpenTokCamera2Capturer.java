@@ -0,0 +1,299 @@
+package com.rnopentok;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * Camera source on Camera2. Frames arrive as YUV_420_888 images from an
+ * {@link ImageReader} and are copied plane by plane into pooled I420 buffers, which is
+ * the only copy before the SDK. Camera ids and characteristics are looked up once per
+ * process, so switching cameras only reopens the device.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class RNOpenTokCamera2Capturer extends RNOpenTokCameraCapturer implements ImageReader.OnImageAvailableListener {
+    private static final String TAG = "RNOpenTokCamera2";
+    private static final int MAX_IMAGES = 3;
+
+    private static String[] sCameraIds;
+    private static final HashMap<String, CameraCharacteristics> sCharacteristics = new HashMap<>();
+
+    private final CameraManager mManager;
+    private final FrameBufferPool mBufferPool = new FrameBufferPool(MAX_IMAGES);
+
+    /* Owned by the camera thread */
+    private CameraDevice mCamera;
+    private CameraCaptureSession mSession;
+    private ImageReader mImageReader;
+    private Range<Integer> mFpsRange;
+    private int mSensorOrientation;
+    private boolean mFront;
+    private boolean mContinuousFocus;
+
+    RNOpenTokCamera2Capturer(Context context) {
+        super(context, I420);
+        mManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    }
+
+    /** Legacy devices run Camera2 on top of Camera1, which only adds overhead there. */
+    static boolean isSupported(Context context) {
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        String[] ids = getCameraIds(manager);
+        if (ids.length == 0) {
+            return false;
+        }
+        for (String id : ids) {
+            CameraCharacteristics characteristics = getCharacteristics(manager, id);
+            Integer level = characteristics != null ? characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL) : null;
+            if (level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static synchronized String[] getCameraIds(CameraManager manager) {
+        if (sCameraIds == null) {
+            try {
+                sCameraIds = manager.getCameraIdList();
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Could not list cameras", e);
+                return new String[0];
+            }
+        }
+        return sCameraIds;
+    }
+
+    private static synchronized CameraCharacteristics getCharacteristics(CameraManager manager, String id) {
+        CameraCharacteristics characteristics = sCharacteristics.get(id);
+        if (characteristics == null) {
+            try {
+                characteristics = manager.getCameraCharacteristics(id);
+                sCharacteristics.put(id, characteristics);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "Could not read camera " + id, e);
+            }
+        }
+        return characteristics;
+    }
+
+    @Override
+    int findCameraIndex(boolean front) {
+        int facing = front ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+        String[] ids = getCameraIds(mManager);
+        for (int i = 0; i < ids.length; i++) {
+            CameraCharacteristics characteristics = getCharacteristics(mManager, ids[i]);
+            Integer lensFacing = characteristics != null ? characteristics.get(CameraCharacteristics.LENS_FACING) : null;
+            if (lensFacing != null && lensFacing == facing) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    int getCameraCount() {
+        return getCameraIds(mManager).length;
+    }
+
+    @Override
+    protected void openCamera(int index) throws CameraAccessException {
+        if (mImageReader != null) {
+            return;
+        }
+        String id = getCameraIds(mManager)[index];
+        CameraCharacteristics characteristics = getCharacteristics(mManager, id);
+        if (characteristics == null) {
+            throw new CameraAccessException(CameraAccessException.CAMERA_ERROR, "No characteristics for camera " + id);
+        }
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        mSensorOrientation = orientation != null ? orientation : 0;
+        mFront = lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_FRONT;
+        mContinuousFocus = false;
+        int[] focusModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        if (focusModes != null) {
+            for (int mode : focusModes) {
+                mContinuousFocus |= mode == CameraCharacteristics.CONTROL_AF_MODE_CONTINUOUS_VIDEO;
+            }
+        }
+
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        int[][] candidates = new int[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            candidates[i] = new int[] { sizes[i].getWidth(), sizes[i].getHeight() };
+        }
+        Size size = sizes[CaptureFormat.chooseSize(candidates, getPreferredWidth(), getPreferredHeight())];
+
+        int fps = getPreferredFps();
+        mFpsRange = null;
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges != null && ranges.length > 0) {
+            int[][] fpsRanges = new int[ranges.length][];
+            for (int i = 0; i < ranges.length; i++) {
+                fpsRanges[i] = new int[] { ranges[i].getLower(), ranges[i].getUpper() };
+            }
+            mFpsRange = ranges[CaptureFormat.chooseFpsRange(fpsRanges, fps)];
+            fps = Math.min(fps, mFpsRange.getUpper());
+        }
+        setCaptureSize(size.getWidth(), size.getHeight(), fps);
+
+        final ImageReader reader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, MAX_IMAGES);
+        reader.setOnImageAvailableListener(this, getCameraHandler());
+        mImageReader = reader;
+
+        mManager.openCamera(id, new CameraDevice.StateCallback() {
+            @Override
+            public void onOpened(CameraDevice camera) {
+                if (reader != mImageReader) {
+                    camera.close();
+                    return;
+                }
+                mCamera = camera;
+                try {
+                    camera.createCaptureSession(Collections.singletonList(reader.getSurface()), new SessionCallback(reader), getCameraHandler());
+                } catch (CameraAccessException e) {
+                    Log.e(TAG, "Could not start capture session", e);
+                    closeCamera();
+                }
+            }
+
+            @Override
+            public void onDisconnected(CameraDevice camera) {
+                camera.close();
+                if (camera == mCamera) {
+                    closeCamera();
+                }
+            }
+
+            @Override
+            public void onError(CameraDevice camera, int error) {
+                Log.e(TAG, "Camera error " + error);
+                onDisconnected(camera);
+            }
+        }, getCameraHandler());
+    }
+
+    private class SessionCallback extends CameraCaptureSession.StateCallback {
+        private final ImageReader mReader;
+
+        SessionCallback(ImageReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public void onConfigured(CameraCaptureSession session) {
+            if (mReader != mImageReader || mCamera == null) {
+                session.close();
+                return;
+            }
+            mSession = session;
+            try {
+                CaptureRequest.Builder request = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+                request.addTarget(mReader.getSurface());
+                if (mContinuousFocus) {
+                    request.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+                }
+                if (mFpsRange != null) {
+                    request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, mFpsRange);
+                }
+                session.setRepeatingRequest(request.build(), null, getCameraHandler());
+            } catch (CameraAccessException | IllegalStateException e) {
+                Log.e(TAG, "Could not start capture", e);
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession session) {
+            Log.e(TAG, "Could not configure capture session");
+        }
+    }
+
+    @Override
+    protected void closeCamera() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        if (mCamera != null) {
+            mCamera.close();
+            mCamera = null;
+        }
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        if (!isCapturing()) {
+            mBufferPool.clear();
+        }
+    }
+
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+        try {
+            if (isCapturing() && reader == mImageReader) {
+                provideImage(image);
+            }
+        } finally {
+            image.close();
+        }
+    }
+
+    private void provideImage(Image image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int chromaWidth = (width + 1) / 2;
+        int chromaHeight = (height + 1) / 2;
+        Image.Plane[] planes = image.getPlanes();
+
+        ByteBuffer frame = mBufferPool.acquire(width * height + 2 * chromaWidth * chromaHeight);
+        copyPlane(planes[0], width, height, frame);
+        copyPlane(planes[1], chromaWidth, chromaHeight, frame);
+        copyPlane(planes[2], chromaWidth, chromaHeight, frame);
+        frame.rewind();
+
+        provideFrame(frame, I420, width, height, getFrameRotation(mSensorOrientation, mFront), mFront);
+        mBufferPool.release(frame);
+    }
+
+    /** Copies whole rows at once when the plane is not interleaved. */
+    private static void copyPlane(Image.Plane plane, int width, int height, ByteBuffer dst) {
+        ByteBuffer src = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        for (int row = 0; row < height; row++) {
+            int start = row * rowStride;
+            if (pixelStride == 1) {
+                src.limit(start + width);
+                src.position(start);
+                dst.put(src);
+            } else {
+                for (int col = 0; col < width; col++) {
+                    dst.put(src.get(start + col * pixelStride));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.rnopentok;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Display;
+import android.view.Surface;
+import android.view.WindowManager;
+
+import com.opentok.android.BaseVideoCapturer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Camera source for {@link RNOpenTokSwitchableCapturer}. The camera is opened and closed
+ * on its own thread, which also receives the frames. Changing the camera or the capture
+ * format while capturing reopens the camera on that thread.
+ *
+ * {@link #create} picks the Camera2 implementation where it is fully supported and the
+ * Camera1 one everywhere else.
+ */
+abstract class RNOpenTokCameraCapturer extends BaseVideoCapturer implements BaseVideoCapturer.CaptureSwitch,
+        RNOpenTokSwitchableCapturer.Source {
+    static final int DEFAULT_WIDTH = 640;
+    static final int DEFAULT_HEIGHT = 480;
+    static final int DEFAULT_FPS = 30;
+
+    private static final String TAG = "RNOpenTokCamera";
+
+    private final Display mDisplay;
+    private final int mFormat;
+    @Nullable private volatile RNOpenTokSwitchableCapturer mOutput;
+    private volatile boolean mCapturing = false;
+    private volatile boolean mPaused = false;
+    private volatile int mCameraIndex = 0;
+
+    private volatile int mPreferredWidth = DEFAULT_WIDTH;
+    private volatile int mPreferredHeight = DEFAULT_HEIGHT;
+    private volatile int mPreferredFps = DEFAULT_FPS;
+    private volatile int mWidth = DEFAULT_WIDTH;
+    private volatile int mHeight = DEFAULT_HEIGHT;
+    private volatile int mFps = DEFAULT_FPS;
+
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+
+    static RNOpenTokCameraCapturer create(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && RNOpenTokCamera2Capturer.isSupported(context)) {
+            return new RNOpenTokCamera2Capturer(context);
+        }
+        return new RNOpenTokCamera1Capturer(context);
+    }
+
+    RNOpenTokCameraCapturer(Context context, int format) {
+        mDisplay = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+        mFormat = format;
+    }
+
+    /** Index of the first camera facing the given way, or -1. */
+    abstract int findCameraIndex(boolean front);
+
+    abstract int getCameraCount();
+
+    /** Called on the camera thread; the negotiated format is reported with {@link #setCaptureSize}. */
+    protected abstract void openCamera(int index) throws Exception;
+
+    /** Called on the camera thread, also after a failed {@link #openCamera}. */
+    protected abstract void closeCamera();
+
+    @Override
+    public void setOutput(@Nullable RNOpenTokSwitchableCapturer output) {
+        mOutput = output;
+    }
+
+    protected void provideFrame(byte[] frame, int format, int width, int height, int rotation, boolean mirror) {
+        RNOpenTokSwitchableCapturer output = mOutput;
+        if (output != null) {
+            output.deliverByteArrayFrame(frame, format, width, height, rotation, mirror);
+        } else {
+            provideByteArrayFrame(frame, format, width, height, rotation, mirror);
+        }
+    }
+
+    protected void provideFrame(ByteBuffer frame, int format, int width, int height, int rotation, boolean mirror) {
+        RNOpenTokSwitchableCapturer output = mOutput;
+        if (output != null) {
+            output.deliverBufferFrame(frame, format, width, height, rotation, mirror);
+        } else {
+            provideBufferFrame(frame, format, width, height, rotation, mirror);
+        }
+    }
+
+    protected boolean isCapturing() {
+        return mCapturing;
+    }
+
+    protected Handler getCameraHandler() {
+        return mCameraHandler;
+    }
+
+    /** Size and rate to ask the camera for; the closest supported ones are used. */
+    synchronized void setCaptureFormat(int width, int height, int fps) {
+        if (width == mPreferredWidth && height == mPreferredHeight && fps == mPreferredFps) {
+            return;
+        }
+        mPreferredWidth = width;
+        mPreferredHeight = height;
+        mPreferredFps = fps;
+        reopenCamera();
+    }
+
+    protected int getPreferredWidth() {
+        return mPreferredWidth;
+    }
+
+    protected int getPreferredHeight() {
+        return mPreferredHeight;
+    }
+
+    protected int getPreferredFps() {
+        return mPreferredFps;
+    }
+
+    protected void setCaptureSize(int width, int height, int fps) {
+        mWidth = width;
+        mHeight = height;
+        mFps = fps;
+    }
+
+    @Override
+    public synchronized void init() {
+        if (mCameraThread == null) {
+            mCameraThread = new HandlerThread("RNOpenTokCamera");
+            mCameraThread.start();
+            mCameraHandler = new Handler(mCameraThread.getLooper());
+        }
+    }
+
+    @Override
+    public synchronized int startCapture() {
+        init();
+        mCapturing = true;
+        mCameraHandler.post(mOpenCamera);
+        return 0;
+    }
+
+    @Override
+    public synchronized int stopCapture() {
+        mCapturing = false;
+        if (mCameraHandler != null) {
+            mCameraHandler.post(mCloseCamera);
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean isCaptureStarted() {
+        return mCapturing;
+    }
+
+    @Override
+    public CaptureSettings getCaptureSettings() {
+        CaptureSettings settings = new CaptureSettings();
+        settings.width = mWidth;
+        settings.height = mHeight;
+        settings.fps = mFps;
+        settings.format = mFormat;
+        settings.expectedDelay = 0;
+        return settings;
+    }
+
+    /** Safe to call more than once, the capturer is not used afterwards. */
+    @Override
+    public synchronized void destroy() {
+        stopCapture();
+        if (mCameraThread != null) {
+            final HandlerThread cameraThread = mCameraThread;
+            mCameraHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    cameraThread.quit();
+                }
+            });
+            mCameraThread = null;
+            mCameraHandler = null;
+        }
+    }
+
+    /** Releases the camera while the app is in the background, capture resumes where it was. */
+    @Override
+    public synchronized void onPause() {
+        if (mPaused) {
+            return;
+        }
+        mPaused = true;
+        if (mCapturing) {
+            mCameraHandler.post(mCloseCamera);
+        }
+    }
+
+    @Override
+    public synchronized void onResume() {
+        if (!mPaused) {
+            return;
+        }
+        mPaused = false;
+        if (mCapturing) {
+            mCameraHandler.post(mOpenCamera);
+        }
+    }
+
+    /** CaptureSwitch **/
+
+    @Override
+    public void cycleCamera() {
+        int count = getCameraCount();
+        if (count > 0) {
+            swapCamera((mCameraIndex + 1) % count);
+        }
+    }
+
+    @Override
+    public int getCameraIndex() {
+        return mCameraIndex;
+    }
+
+    @Override
+    public synchronized void swapCamera(int cameraIndex) {
+        if (cameraIndex == mCameraIndex) {
+            return;
+        }
+        mCameraIndex = cameraIndex;
+        reopenCamera();
+    }
+
+    private void reopenCamera() {
+        if (mCapturing) {
+            mCameraHandler.post(mCloseCamera);
+            mCameraHandler.post(mOpenCamera);
+        }
+    }
+
+    /** Camera thread **/
+
+    private final Runnable mOpenCamera = new Runnable() {
+        @Override
+        public void run() {
+            if (!mCapturing || mPaused) {
+                return;
+            }
+            try {
+                openCamera(mCameraIndex);
+            } catch (Exception e) {
+                Log.e(TAG, "Could not open camera " + mCameraIndex, e);
+                closeCamera();
+            }
+        }
+    };
+
+    private final Runnable mCloseCamera = new Runnable() {
+        @Override
+        public void run() {
+            closeCamera();
+        }
+    };
+
+    /** Rotation that turns the sensor image upright for the current display rotation. */
+    protected int getFrameRotation(int sensorOrientation, boolean front) {
+        int displayRotation;
+        switch (mDisplay.getRotation()) {
+            case Surface.ROTATION_90: displayRotation = 270; break;
+            case Surface.ROTATION_180: displayRotation = 180; break;
+            case Surface.ROTATION_270: displayRotation = 90; break;
+            default: displayRotation = 0;
+        }
+        if (front) {
+            return ((360 - displayRotation) % 360 + sensorOrientation) % 360;
+        }
+        return (displayRotation + sensorOrientation) % 360;
+    }
+}
@@ -0,0 +1,195 @@
+package com.rnopentok;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.view.Choreographer;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Queues events for JS and sends them as one {@code onEventBatch} array per frame, or
+ * per configured interval. Events queued with a coalescing key replace the queued event
+ * with the same key, so a burst of superseded notices reaches JS only once. The newer
+ * event takes the place of the older one at the end of the queue, so it stays ordered
+ * after the events queued in between.
+ * A negative interval turns batching off and emits every event right away.
+ */
+class RNOpenTokEventDispatcher {
+    static final int FLUSH_EVERY_FRAME = 0;
+
+    private static RNOpenTokEventDispatcher instance = null;
+
+    private final ReactContext mContext;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final ArrayList<QueuedEvent> mQueue = new ArrayList<>();
+    private final HashMap<String, QueuedEvent> mCoalesced = new HashMap<>();
+    private volatile int mFlushInterval = FLUSH_EVERY_FRAME;
+    private boolean mFlushScheduled = false;
+
+    private long mDispatched = 0;
+    private long mCoalescedCount = 0;
+    private long mFlushes = 0;
+    private int mMaxQueueDepth = 0;
+    private double mLatencyTotalMs = 0;
+    private double mMaxLatencyMs = 0;
+
+    private static final class QueuedEvent {
+        final String name;
+        final WritableMap payload;
+        final long queuedAt;
+
+        QueuedEvent(String name, WritableMap payload, long queuedAt) {
+            this.name = name;
+            this.payload = payload;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private RNOpenTokEventDispatcher(ReactContext context) {
+        mContext = context;
+    }
+
+    static synchronized RNOpenTokEventDispatcher initEventDispatcher(ReactContext context) {
+        if (instance == null) {
+            instance = new RNOpenTokEventDispatcher(context);
+        }
+        return instance;
+    }
+
+    static RNOpenTokEventDispatcher getEventDispatcher() {
+        return RNOpenTokEventDispatcher.initEventDispatcher(null);
+    }
+
+    void setFlushInterval(int flushInterval) {
+        mFlushInterval = flushInterval;
+        if (flushInterval < 0) {
+            mHandler.post(mFlushRunnable);
+        }
+    }
+
+    void dispatch(Events event, @Nullable WritableMap payload) {
+        dispatch(event, payload, null);
+    }
+
+    /**
+     * @param coalescingKey events sharing a key replace each other while queued, or null
+     *                      to always deliver the event.
+     */
+    void dispatch(Events event, @Nullable WritableMap payload, @Nullable String coalescingKey) {
+        if (mFlushInterval < 0) {
+            emit(event.toString(), payload);
+            synchronized (this) {
+                mDispatched++;
+            }
+            return;
+        }
+
+        boolean schedule;
+        synchronized (this) {
+            mDispatched++;
+            QueuedEvent queued = new QueuedEvent(event.toString(), payload, System.nanoTime());
+            QueuedEvent replaced = coalescingKey != null ? mCoalesced.put(coalescingKey, queued) : null;
+            if (replaced != null) {
+                mQueue.remove(replaced);
+                mCoalescedCount++;
+            }
+            mQueue.add(queued);
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueue.size());
+
+            schedule = !mFlushScheduled;
+            mFlushScheduled = true;
+        }
+
+        if (schedule) {
+            mHandler.post(mScheduleRunnable);
+        }
+    }
+
+    private final Runnable mScheduleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int interval = mFlushInterval;
+            if (interval > 0) {
+                mHandler.postDelayed(mFlushRunnable, interval);
+            } else if (interval == FLUSH_EVERY_FRAME) {
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            } else {
+                flush();
+            }
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    };
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private void flush() {
+        WritableArray batch = Arguments.createArray();
+        long now = System.nanoTime();
+
+        synchronized (this) {
+            mFlushScheduled = false;
+            if (mQueue.isEmpty()) {
+                return;
+            }
+
+            double latencyMs = (now - mQueue.get(0).queuedAt) / 1e6;
+            mLatencyTotalMs += latencyMs;
+            mMaxLatencyMs = Math.max(mMaxLatencyMs, latencyMs);
+            mFlushes++;
+
+            for (QueuedEvent queued : mQueue) {
+                WritableMap entry = Arguments.createMap();
+                entry.putString("name", queued.name);
+                if (queued.payload != null) {
+                    entry.putMap("payload", queued.payload);
+                } else {
+                    entry.putNull("payload");
+                }
+                batch.pushMap(entry);
+            }
+            mQueue.clear();
+            mCoalesced.clear();
+        }
+
+        emit(Events.EVENT_BATCH.toString(), batch);
+    }
+
+    private void emit(String name, @Nullable Object payload) {
+        mContext
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(name, payload);
+    }
+
+    synchronized WritableMap getStats() {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("flushInterval", mFlushInterval);
+        stats.putInt("queueDepth", mQueue.size());
+        stats.putInt("maxQueueDepth", mMaxQueueDepth);
+        stats.putDouble("dispatched", mDispatched);
+        stats.putDouble("coalesced", mCoalescedCount);
+        stats.putDouble("flushes", mFlushes);
+        stats.putDouble("averageFlushLatencyMs", mFlushes == 0 ? 0 : mLatencyTotalMs / mFlushes);
+        stats.putDouble("maxFlushLatencyMs", mMaxLatencyMs);
+        return stats;
+    }
+}
@@ -0,0 +1,99 @@
+package com.rnopentok;
+
+import android.view.View;
+
+import com.opentok.android.BaseVideoRenderer;
+
+/**
+ * Forwards everything to another renderer, reports the first frame it draws and
+ * counts frames, so the time until video shows up and its frame rate can be measured.
+ * The renderer behind it can be swapped, which lets views hand theirs back to
+ * {@link RNOpenTokRendererPool} while keeping this one.
+ */
+class RNOpenTokFirstFrameRenderer extends BaseVideoRenderer {
+    interface Listener {
+        /** Called on the rendering thread. */
+        void onFirstFrame();
+    }
+
+    private volatile BaseVideoRenderer mRenderer;
+    private final Listener mListener;
+    private volatile boolean mFirstFrame = true;
+    /** Video of the renderer behind is off until it draws a frame of its own. */
+    private volatile boolean mRendererReset = false;
+    private volatile long mFrameCount = 0;
+
+    RNOpenTokFirstFrameRenderer(Listener listener) {
+        mListener = listener;
+    }
+
+    BaseVideoRenderer getRenderer() {
+        return mRenderer;
+    }
+
+    void setRenderer(BaseVideoRenderer renderer) {
+        mRendererReset = renderer != null;
+        mRenderer = renderer;
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        BaseVideoRenderer renderer = mRenderer;
+        if (renderer == null) {
+            return;
+        }
+        if (mRendererReset) {
+            mRendererReset = false;
+            renderer.onVideoPropertiesChanged(true);
+        }
+        renderer.onFrame(frame);
+        mFrameCount++;
+        if (mFirstFrame) {
+            mFirstFrame = false;
+            mListener.onFirstFrame();
+        }
+    }
+
+    /** Frames drawn so far, only written from the rendering thread. */
+    long getFrameCount() {
+        return mFrameCount;
+    }
+
+    @Override
+    public void setStyle(String key, String value) {
+        BaseVideoRenderer renderer = mRenderer;
+        if (renderer != null) {
+            renderer.setStyle(key, value);
+        }
+    }
+
+    @Override
+    public void onVideoPropertiesChanged(boolean videoEnabled) {
+        BaseVideoRenderer renderer = mRenderer;
+        if (renderer != null && !(videoEnabled && mRendererReset)) {
+            renderer.onVideoPropertiesChanged(videoEnabled);
+        }
+    }
+
+    @Override
+    public View getView() {
+        BaseVideoRenderer renderer = mRenderer;
+        return renderer != null ? renderer.getView() : null;
+    }
+
+    @Override
+    public void onPause() {
+        BaseVideoRenderer renderer = mRenderer;
+        if (renderer != null) {
+            renderer.onPause();
+        }
+    }
+
+    @Override
+    public void onResume() {
+        BaseVideoRenderer renderer = mRenderer;
+        if (renderer != null) {
+            renderer.onResume();
+        }
+    }
+}
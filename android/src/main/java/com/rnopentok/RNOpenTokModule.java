@@ -1,27 +1,83 @@
 package com.rnopentok;
 
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Build;
+
+import com.facebook.react.bridge.ActivityEventListener;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.BaseActivityEventListener;
+import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Promise;
-import com.opentok.android.Session;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.UiThreadUtil;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RNOpenTokModule extends ReactContextBaseJavaModule {
     public static final String REACT_CLASS = "RNOpenTok";
+    private static final int SCREEN_CAPTURE_REQUEST = 0x4f54;
     private static ReactApplicationContext reactContext = null;
 
+    private Promise mScreenCapturePromise;
+
     public RNOpenTokModule(ReactApplicationContext context) {
         super(context);
 
         RNOpenTokSessionManager.initSessionManager(context);
+        RNOpenTokEventDispatcher.initEventDispatcher(context);
+        context.addActivityEventListener(mActivityEventListener);
+        context.addLifecycleEventListener(mLifecycleEventListener);
         reactContext = context;
     }
 
+    private final LifecycleEventListener mLifecycleEventListener = new LifecycleEventListener() {
+        @Override
+        public void onHostResume() {
+            RNOpenTokSessionManager.getSessionManager().setHostPaused(false);
+        }
+
+        @Override
+        public void onHostPause() {
+            RNOpenTokSessionManager.getSessionManager().setHostPaused(true);
+        }
+
+        @Override
+        public void onHostDestroy() {
+            // Pooled renderers hold the context of the destroyed Activity.
+            RNOpenTokRendererPool.getRendererPool().clear();
+        }
+    };
+
+    private final ActivityEventListener mActivityEventListener = new BaseActivityEventListener() {
+        @Override
+        public void onActivityResult(Activity activity, int requestCode, int resultCode, Intent data) {
+            if (requestCode != SCREEN_CAPTURE_REQUEST || mScreenCapturePromise == null) {
+                return;
+            }
+            Promise promise = mScreenCapturePromise;
+            mScreenCapturePromise = null;
+            promise.resolve(RNOpenTokProjectionCapturer.onPermissionResult(activity, resultCode, data));
+        }
+    };
+
     @Override
     public String getName() {
         return REACT_CLASS;
     }
 
+    @Override
+    public void onCatalystInstanceDestroy() {
+        super.onCatalystInstanceDestroy();
+        RNOpenTokRendererPool.getRendererPool().clear();
+    }
+
     @ReactMethod
     public void setApiKey(String apiKey) {
         RNOpenTokSessionManager.getSessionManager().setApiKey(apiKey);
@@ -29,12 +85,7 @@ public class RNOpenTokModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void connect(String sessionId, String token, Promise promise) {
-        Session session = RNOpenTokSessionManager.getSessionManager().connectToSession(sessionId, token);
-        session.setSessionListener(RNOpenTokSessionManager.getSessionManager());
-        session.setSignalListener(RNOpenTokSessionManager.getSessionManager());
-        session.setReconnectionListener(RNOpenTokSessionManager.getSessionManager());
-        session.setArchiveListener(RNOpenTokSessionManager.getSessionManager());
-        session.setConnectionListener(RNOpenTokSessionManager.getSessionManager());
+        RNOpenTokSessionManager.getSessionManager().connectToSession(sessionId, token);
         promise.resolve(Boolean.valueOf(true));
     }
 
@@ -49,11 +100,194 @@ public class RNOpenTokModule extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void sendSignal(String sessionId, String type, String data, Promise promise) {
-        Session session = RNOpenTokSessionManager.getSessionManager().getSession(sessionId);
+    public void sendSignal(String sessionId, String type, String data, final Promise promise) {
+        RNOpenTokSignalOutbox outbox = RNOpenTokSessionManager.getSessionManager().getSignalOutbox(sessionId);
+        if (outbox == null) {
+            promise.reject("E_NO_SESSION", "Not connected to session " + sessionId);
+            return;
+        }
 
-        session.sendSignal(type, data);
-        promise.resolve(Boolean.valueOf(true));
+        outbox.send(type, data, new RNOpenTokSignalOutbox.Callback() {
+            @Override
+            public void onSent() {
+                promise.resolve(Boolean.valueOf(true));
+            }
+
+            @Override
+            public void onFailed(String code, String message) {
+                promise.reject(code, message);
+            }
+        });
+    }
+
+    /**
+     * Queues several signals in one bridge call. Resolves once every signal settled, with
+     * one result per signal in the order given.
+     */
+    @ReactMethod
+    public void sendSignals(String sessionId, ReadableArray signals, final Promise promise) {
+        RNOpenTokSignalOutbox outbox = RNOpenTokSessionManager.getSessionManager().getSignalOutbox(sessionId);
+        if (outbox == null) {
+            promise.reject("E_NO_SESSION", "Not connected to session " + sessionId);
+            return;
+        }
+
+        final int count = signals.size();
+        final WritableMap[] results = new WritableMap[count];
+        final AtomicInteger remaining = new AtomicInteger(count);
+        if (count == 0) {
+            promise.resolve(Arguments.createArray());
+            return;
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            ReadableMap signal = signals.getMap(i);
+            final String type = signal.getString("type");
+
+            outbox.send(type, signal.getString("data"), new RNOpenTokSignalOutbox.Callback() {
+                @Override
+                public void onSent() {
+                    settle(true, null, null);
+                }
+
+                @Override
+                public void onFailed(String code, String message) {
+                    settle(false, code, message);
+                }
+
+                private void settle(boolean sent, String code, String message) {
+                    WritableMap result = Arguments.createMap();
+                    result.putString("type", type);
+                    result.putBoolean("sent", sent);
+                    if (code != null) {
+                        result.putString("code", code);
+                        result.putString("message", message);
+                    }
+                    results[index] = result;
+
+                    if (remaining.decrementAndGet() == 0) {
+                        WritableArray all = Arguments.createArray();
+                        for (WritableMap item : results) {
+                            all.pushMap(item);
+                        }
+                        promise.resolve(all);
+                    }
+                }
+            });
+        }
+    }
+
+    @ReactMethod
+    public void setSignalOptions(ReadableMap options) {
+        RNOpenTokSignalOutbox.Options parsed = new RNOpenTokSignalOutbox.Options();
+        if (options.hasKey("ratePerSecond") && options.getDouble("ratePerSecond") > 0) {
+            parsed.ratePerSecond = Math.max(RNOpenTokSignalOutbox.MIN_RATE_PER_SECOND, options.getDouble("ratePerSecond"));
+        }
+        if (options.hasKey("burst")) {
+            parsed.burst = Math.max(1, options.getInt("burst"));
+        }
+        if (options.hasKey("maxQueue")) {
+            parsed.maxQueue = Math.max(1, options.getInt("maxQueue"));
+        }
+        if (options.hasKey("dropPolicy")) {
+            parsed.dropPolicy = "dropNewest".equals(options.getString("dropPolicy"))
+                    ? RNOpenTokSignalOutbox.DropPolicy.DROP_NEWEST
+                    : RNOpenTokSignalOutbox.DropPolicy.DROP_OLDEST;
+        }
+        if (options.hasKey("coalesceTypes")) {
+            ReadableArray types = options.getArray("coalesceTypes");
+            for (int i = 0; i < types.size(); i++) {
+                parsed.coalesceTypes.add(types.getString(i));
+            }
+        }
+        if (options.hasKey("compressThreshold")) {
+            parsed.compressThreshold = options.getInt("compressThreshold");
+        }
+        RNOpenTokSessionManager.getSessionManager().setSignalOptions(parsed);
+    }
+
+    @ReactMethod
+    public void getScreenCaptureStats(String sessionId, Promise promise) {
+        RNOpenTokPublisherView publisher = RNOpenTokSessionManager.getSessionManager().getPublisherListener(sessionId);
+        WritableMap stats = publisher != null ? publisher.getScreenCaptureStats() : null;
+
+        if (stats == null) {
+            promise.reject("E_NO_SCREEN_CAPTURE", "No screen capture is running for session " + sessionId);
+            return;
+        }
+        promise.resolve(stats);
+    }
+
+    /** Resolves with whether the user allowed capturing the whole screen for the next publisher. */
+    @ReactMethod
+    public void requestScreenCapturePermission(Promise promise) {
+        Activity activity = getCurrentActivity();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            promise.reject("E_UNSUPPORTED", "Capturing the device screen needs Android 5.0");
+            return;
+        }
+        if (activity == null) {
+            promise.reject("E_NO_ACTIVITY", "No activity to ask for screen capture permission");
+            return;
+        }
+        if (mScreenCapturePromise != null) {
+            promise.reject("E_PENDING", "Screen capture permission was already requested");
+            return;
+        }
+        mScreenCapturePromise = promise;
+        activity.startActivityForResult(RNOpenTokProjectionCapturer.createPermissionIntent(activity), SCREEN_CAPTURE_REQUEST);
+    }
+
+    @ReactMethod
+    public void getVideoProcessorStats(String sessionId, Promise promise) {
+        RNOpenTokPublisherView publisher = RNOpenTokSessionManager.getSessionManager().getPublisherListener(sessionId);
+        WritableMap stats = publisher != null ? publisher.getVideoProcessorStats() : null;
+
+        if (stats == null) {
+            promise.reject("E_NO_VIDEO_PROCESSORS", "No video processors are running for session " + sessionId);
+            return;
+        }
+        promise.resolve(stats);
+    }
+
+    @ReactMethod
+    public void setEventBatchInterval(int interval) {
+        RNOpenTokEventDispatcher.getEventDispatcher().setFlushInterval(interval);
+    }
+
+    @ReactMethod
+    public void setActiveSpeakerDetection(final boolean enabled) {
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                RNOpenTokSessionManager.getSessionManager().setActiveSpeakerDetection(enabled);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void setMaxVideoStreams(final String sessionId, final int maxStreams) {
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                RNOpenTokSessionManager.getSessionManager().setMaxVideoStreams(sessionId, maxStreams);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getStats(Promise promise) {
+        WritableMap stats = Arguments.createMap();
+        stats.putMap("events", RNOpenTokEventDispatcher.getEventDispatcher().getStats());
+        stats.putMap("signals", RNOpenTokSessionManager.getSessionManager().getSignalStats());
+        stats.putMap("activeSpeaker", RNOpenTokSessionManager.getSessionManager().getActiveSpeakerStats());
+        stats.putMap("videoPause", RNOpenTokSubscriberView.getVideoPauseStats());
+        stats.putMap("videoPolicy", RNOpenTokSessionManager.getSessionManager().getVideoPolicyStats());
+        stats.putMap("rendererPool", RNOpenTokRendererPool.getRendererPool().getStats());
+        stats.putMap("layout", RNOpenTokView.getLayoutStats());
+        stats.putMap("lifecycle", RNOpenTokSessionManager.getSessionManager().getLifecycleStats());
+        promise.resolve(stats);
     }
 
 }
@@ -0,0 +1,508 @@
+package com.rnopentok;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.PixelFormat;
+import android.hardware.display.DisplayManager;
+import android.hardware.display.VirtualDisplay;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.projection.MediaProjection;
+import android.media.projection.MediaProjectionManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.DisplayMetrics;
+import android.view.Display;
+import android.view.WindowManager;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Captures the whole device through a {@link MediaProjection}. The system composes the
+ * screen into an {@link ImageReader} at the published size, so frames are scaled by
+ * the compositor and never go through {@link android.view.View#draw}. An image is only
+ * read when the screen changed, and at most {@code fps} times per second; an
+ * unchanged screen is sent again every {@code keepaliveInterval} ms so subscribers
+ * joining late still get a picture.
+ *
+ * A projection only allows one virtual display, so it is kept for the lifetime of the
+ * capturer and only detached from its surface while capture is stopped.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class RNOpenTokProjectionCapturer extends RNOpenTokScreenCapturer implements ImageReader.OnImageAvailableListener,
+        DisplayManager.DisplayListener {
+    private static final int MAX_IMAGES = 2;
+    private static final int POOLED_BUFFERS = 3;
+
+    @Nullable private static MediaProjection sProjection;
+
+    private final MediaProjection mProjection;
+    private final DisplayManager mDisplayManager;
+    private final Display mDisplay;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private int mFps = 15;
+    private int mStatsInterval = 1000;
+    private int mKeepaliveInterval = 1000;
+    private int mMaxWidth = 0;
+    private int mMaxHeight = 0;
+    private boolean mI420Output = false;
+    private volatile int mWidth;
+    private volatile int mHeight;
+
+    private volatile boolean mCapturing = false;
+    private volatile boolean mProjectionStopped = false;
+    private boolean mDestroyed = false;
+    private volatile StatsListener mStatsListener;
+    private HandlerThread mWorkerThread;
+    private Handler mWorker;
+
+    /* Owned by the worker thread */
+    private VirtualDisplay mVirtualDisplay;
+    private ImageReader mImageReader;
+    private final FrameBufferPool mBufferPool = new FrameBufferPool(POOLED_BUFFERS);
+    @Nullable private ByteBuffer mLastFrame;
+    private int mLastFrameWidth;
+    private int mLastFrameHeight;
+    private long mLastFrameAt = 0;
+    private boolean mReadScheduled = false;
+    private double mAverageCost = 0;
+    private long mLastStatsAt = 0;
+    private long mFramesAtLastStats = 0;
+    private long mSkippedAtLastStats = 0;
+
+    private volatile long mFramesCaptured = 0;
+    private volatile long mFramesSkipped = 0;
+    private volatile long mKeepaliveFrames = 0;
+
+    static Intent createPermissionIntent(Context context) {
+        MediaProjectionManager manager = (MediaProjectionManager) context.getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+        return manager.createScreenCaptureIntent();
+    }
+
+    /** Returns whether the user allowed capturing the screen. */
+    static boolean onPermissionResult(Context context, int resultCode, @Nullable Intent data) {
+        if (resultCode != Activity.RESULT_OK || data == null) {
+            return false;
+        }
+        MediaProjectionManager manager = (MediaProjectionManager) context.getSystemService(Context.MEDIA_PROJECTION_SERVICE);
+        setProjection(manager.getMediaProjection(resultCode, data));
+        return true;
+    }
+
+    /** Keeps a granted projection until a capturer takes it; a newer one stops the previous. */
+    static synchronized void setProjection(@Nullable MediaProjection projection) {
+        if (sProjection != null && sProjection != projection) {
+            sProjection.stop();
+        }
+        sProjection = projection;
+    }
+
+    /** A projection is used by one capturer only, so the permission is asked again for the next. */
+    @Nullable
+    static synchronized MediaProjection takeProjection() {
+        MediaProjection projection = sProjection;
+        sProjection = null;
+        return projection;
+    }
+
+    RNOpenTokProjectionCapturer(Context context, MediaProjection projection, @Nullable ReadableMap captureSettings) {
+        mProjection = projection;
+        mDisplayManager = (DisplayManager) context.getSystemService(Context.DISPLAY_SERVICE);
+        mDisplay = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+        if (captureSettings != null) {
+            mFps = captureSettings.hasKey("fps") ? captureSettings.getInt("fps") : mFps;
+            mStatsInterval = captureSettings.hasKey("statsInterval") ? captureSettings.getInt("statsInterval") : mStatsInterval;
+            mKeepaliveInterval = captureSettings.hasKey("keepaliveInterval") ? captureSettings.getInt("keepaliveInterval") : mKeepaliveInterval;
+            mMaxWidth = captureSettings.hasKey("maxWidth") ? captureSettings.getInt("maxWidth")
+                    : captureSettings.hasKey("width") ? captureSettings.getInt("width") : 0;
+            mMaxHeight = captureSettings.hasKey("maxHeight") ? captureSettings.getInt("maxHeight")
+                    : captureSettings.hasKey("height") ? captureSettings.getInt("height") : 0;
+            mI420Output = captureSettings.hasKey("format") && "i420".equalsIgnoreCase(captureSettings.getString("format"));
+        }
+        mFps = Math.max(1, mFps);
+
+        DisplayMetrics metrics = getDisplayMetrics();
+        long size = FrameScaler.fitSize(metrics.widthPixels, metrics.heightPixels, mMaxWidth, mMaxHeight, true);
+        mWidth = FrameScaler.fitWidth(size);
+        mHeight = FrameScaler.fitHeight(size);
+        mProjection.registerCallback(mProjectionCallback, mHandler);
+    }
+
+    @Override
+    public void setStatsListener(@Nullable StatsListener listener) {
+        mStatsListener = listener;
+    }
+
+    private DisplayMetrics getDisplayMetrics() {
+        DisplayMetrics metrics = new DisplayMetrics();
+        mDisplay.getRealMetrics(metrics);
+        return metrics;
+    }
+
+    /**
+     * The user can end the projection from the system UI at any time. It cannot be
+     * restarted, so the listener is told and a new permission is needed.
+     */
+    private final MediaProjection.Callback mProjectionCallback = new MediaProjection.Callback() {
+        @Override
+        public void onStop() {
+            boolean destroyed;
+            synchronized (RNOpenTokProjectionCapturer.this) {
+                destroyed = mDestroyed;
+                mProjectionStopped = true;
+            }
+            stopCapture();
+            if (!destroyed) {
+                notifyStopped("projectionStopped");
+            }
+        }
+    };
+
+    @Override
+    public void init() {
+
+    }
+
+    @Override
+    public synchronized int startCapture() {
+        if (mProjectionStopped || mDestroyed) {
+            return -1;
+        }
+        if (mWorkerThread == null) {
+            mWorkerThread = new HandlerThread("RNOpenTokProjection");
+            mWorkerThread.start();
+            mWorker = new Handler(mWorkerThread.getLooper());
+            mDisplayManager.registerDisplayListener(this, mWorker);
+        }
+        mCapturing = true;
+        mWorker.post(mAttachDisplay);
+        return 0;
+    }
+
+    @Override
+    public synchronized int stopCapture() {
+        mCapturing = false;
+        if (mWorker != null) {
+            mWorker.post(mDetachDisplay);
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean isCaptureStarted() {
+        return mCapturing;
+    }
+
+    @Override
+    public CaptureSettings getCaptureSettings() {
+        CaptureSettings settings = new CaptureSettings();
+        settings.fps = mFps;
+        settings.width = mWidth;
+        settings.height = mHeight;
+        settings.format = mI420Output ? I420 : ABGR;
+        return settings;
+    }
+
+    /** Safe to call more than once; the projection ends with the capturer. */
+    @Override
+    public synchronized void destroy() {
+        if (mDestroyed) {
+            return;
+        }
+        mDestroyed = true;
+        stopCapture();
+        if (mWorkerThread == null) {
+            mProjection.unregisterCallback(mProjectionCallback);
+            mProjection.stop();
+            return;
+        }
+        final HandlerThread workerThread = mWorkerThread;
+        mDisplayManager.unregisterDisplayListener(this);
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mVirtualDisplay != null) {
+                    mVirtualDisplay.release();
+                    mVirtualDisplay = null;
+                }
+                if (mImageReader != null) {
+                    mImageReader.close();
+                    mImageReader = null;
+                }
+                mLastFrame = null;
+                mBufferPool.clear();
+                mProjection.unregisterCallback(mProjectionCallback);
+                mProjection.stop();
+                workerThread.quit();
+            }
+        });
+        mWorkerThread = null;
+        mWorker = null;
+    }
+
+    /** Other apps are what is shared, so capture goes on while this one is in the background. */
+    @Override
+    boolean runsInBackground() {
+        return true;
+    }
+
+    @Override
+    public void onPause() {
+
+    }
+
+    @Override
+    public void onResume() {
+
+    }
+
+    /** Worker thread **/
+
+    /** Points the virtual display at the reader and restarts the stats window. */
+    private final Runnable mAttachDisplay = new Runnable() {
+        @Override
+        public void run() {
+            if (!mCapturing || mProjectionStopped) {
+                return;
+            }
+            if (!updateReader()) {
+                mVirtualDisplay.setSurface(mImageReader.getSurface());
+            }
+
+            long now = SystemClock.uptimeMillis();
+            mLastStatsAt = now;
+            mFramesAtLastStats = mFramesCaptured;
+            mSkippedAtLastStats = mFramesSkipped;
+            mWorker.removeCallbacks(mReportStats);
+            if (mStatsInterval > 0) {
+                mWorker.postDelayed(mReportStats, mStatsInterval);
+            }
+        }
+    };
+
+    /**
+     * Sizes the reader for the current orientation of the screen. A new reader, which
+     * the virtual display is pointed at, is only created when that size changed.
+     * Returns whether it was.
+     */
+    private boolean updateReader() {
+        DisplayMetrics metrics = getDisplayMetrics();
+        long size = FrameScaler.fitSize(metrics.widthPixels, metrics.heightPixels, mMaxWidth, mMaxHeight, true);
+        int width = FrameScaler.fitWidth(size);
+        int height = FrameScaler.fitHeight(size);
+        int densityDpi = Math.max(1, metrics.densityDpi * width / metrics.widthPixels);
+
+        if (mImageReader == null || mImageReader.getWidth() != width || mImageReader.getHeight() != height) {
+            ImageReader previous = mImageReader;
+            mImageReader = ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, MAX_IMAGES);
+            mImageReader.setOnImageAvailableListener(this, mWorker);
+            if (mVirtualDisplay == null) {
+                mVirtualDisplay = mProjection.createVirtualDisplay("RNOpenTokProjection", width, height, densityDpi,
+                        DisplayManager.VIRTUAL_DISPLAY_FLAG_AUTO_MIRROR, mImageReader.getSurface(), null, mWorker);
+            } else {
+                mVirtualDisplay.resize(width, height, densityDpi);
+                mVirtualDisplay.setSurface(mImageReader.getSurface());
+            }
+            if (previous != null) {
+                previous.close();
+            }
+            mWidth = width;
+            mHeight = height;
+            return true;
+        }
+        return false;
+    }
+
+    private final Runnable mDetachDisplay = new Runnable() {
+        @Override
+        public void run() {
+            if (mCapturing) {
+                return;
+            }
+            if (mVirtualDisplay != null) {
+                mVirtualDisplay.setSurface(null);
+            }
+            mWorker.removeCallbacks(mReadFrame);
+            mWorker.removeCallbacks(mKeepalive);
+            mWorker.removeCallbacks(mReportStats);
+            mReadScheduled = false;
+        }
+    };
+
+    /**
+     * Images that arrive before the next frame is due are left in the reader, and only
+     * the latest one is read once it is.
+     */
+    @Override
+    public void onImageAvailable(ImageReader reader) {
+        if (reader != mImageReader) {
+            return;
+        }
+        if (mReadScheduled) {
+            mFramesSkipped++;
+            return;
+        }
+        long delay = mLastFrameAt + 1000 / mFps - SystemClock.uptimeMillis();
+        if (delay > 0) {
+            mReadScheduled = true;
+            mWorker.postDelayed(mReadFrame, delay);
+        } else {
+            mReadFrame.run();
+        }
+    }
+
+    private final Runnable mReadFrame = new Runnable() {
+        @Override
+        public void run() {
+            mReadScheduled = false;
+            if (mImageReader == null) {
+                return;
+            }
+            Image image = mImageReader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            try {
+                if (mCapturing) {
+                    deliverImage(image);
+                }
+            } finally {
+                image.close();
+            }
+        }
+    };
+
+    /**
+     * Rows of the image may be padded past the pixels they hold, so they are copied one
+     * by one into a packed pooled buffer, or converted to I420 straight from the image.
+     */
+    private void deliverImage(Image image) {
+        long start = System.nanoTime();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane plane = image.getPlanes()[0];
+        ByteBuffer src = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+
+        ByteBuffer frame;
+        if (mI420Output) {
+            frame = mBufferPool.acquire(ArgbToI420Converter.frameSize(width, height));
+            ArgbToI420Converter.convert(src, width, height, rowStride, frame);
+        } else {
+            int rowBytes = width * 4;
+            frame = mBufferPool.acquire(rowBytes * height);
+            for (int row = 0; row < height; row++) {
+                src.limit(row * rowStride + rowBytes);
+                src.position(row * rowStride);
+                frame.put(src);
+            }
+            frame.flip();
+        }
+
+        sendFrame(frame, width, height);
+        mLastFrameAt = SystemClock.uptimeMillis();
+        mFramesCaptured++;
+        double cost = (System.nanoTime() - start) / 1e6;
+        mAverageCost = mFramesCaptured == 1 ? cost : mAverageCost + 0.1 * (cost - mAverageCost);
+    }
+
+    /** The last frame is kept for the keepalive, the one before goes back to the pool. */
+    private void sendFrame(ByteBuffer frame, int width, int height) {
+        provideFrame(frame, mI420Output ? I420 : ABGR, width, height);
+        if (mLastFrame != frame) {
+            mBufferPool.release(mLastFrame);
+        }
+        mLastFrame = frame;
+        mLastFrameWidth = width;
+        mLastFrameHeight = height;
+
+        mWorker.removeCallbacks(mKeepalive);
+        if (mKeepaliveInterval > 0) {
+            mWorker.postDelayed(mKeepalive, mKeepaliveInterval);
+        }
+    }
+
+    private final Runnable mKeepalive = new Runnable() {
+        @Override
+        public void run() {
+            if (mCapturing && mLastFrame != null) {
+                mLastFrame.position(0);
+                sendFrame(mLastFrame, mLastFrameWidth, mLastFrameHeight);
+                mKeepaliveFrames++;
+            }
+        }
+    };
+
+    private final Runnable mReportStats = new Runnable() {
+        @Override
+        public void run() {
+            StatsListener listener = mStatsListener;
+            long now = SystemClock.uptimeMillis();
+            if (listener != null && now > mLastStatsAt) {
+                WritableMap stats = Arguments.createMap();
+                stats.putInt("fps", mFps);
+                stats.putInt("targetFps", mFps);
+                stats.putDouble("achievedFps", (mFramesCaptured - mFramesAtLastStats) * 1000.0 / (now - mLastStatsAt));
+                stats.putDouble("droppedFrames", mFramesSkipped - mSkippedAtLastStats);
+                stats.putDouble("captureTimeMs", mAverageCost);
+                listener.onScreenCaptureStats(stats);
+            }
+            mLastStatsAt = now;
+            mFramesAtLastStats = mFramesCaptured;
+            mSkippedAtLastStats = mFramesSkipped;
+            if (mCapturing) {
+                mWorker.postDelayed(this, mStatsInterval);
+            }
+        }
+    };
+
+    /** Display listener **/
+
+    @Override
+    public void onDisplayAdded(int displayId) {
+
+    }
+
+    @Override
+    public void onDisplayRemoved(int displayId) {
+
+    }
+
+    /**
+     * Rotating the device swaps the size of the reader. Other changes of the display,
+     * e.g. its state or refresh rate, leave the capture alone.
+     */
+    @Override
+    public void onDisplayChanged(int displayId) {
+        if (displayId == mDisplay.getDisplayId() && mCapturing && !mProjectionStopped && mImageReader != null) {
+            updateReader();
+        }
+    }
+
+    @Override
+    public WritableMap getStats() {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("width", mWidth);
+        stats.putInt("height", mHeight);
+        stats.putDouble("framesCaptured", mFramesCaptured);
+        stats.putInt("fps", mFps);
+        stats.putDouble("captureTimeMs", mAverageCost);
+        stats.putDouble("bufferAllocations", mBufferPool.getAllocationCount());
+        stats.putDouble("bufferReuses", mBufferPool.getReuseCount());
+        stats.putDouble("pooledBytes", mBufferPool.getPooledBytes());
+        stats.putDouble("framesSkipped", mFramesSkipped);
+        stats.putDouble("keepaliveFrames", mKeepaliveFrames);
+        return stats;
+    }
+}
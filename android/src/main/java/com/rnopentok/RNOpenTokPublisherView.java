@@ -2,33 +2,70 @@ package com.rnopentok;
 
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.util.ReactFindViewUtil;
-import com.opentok.android.BaseVideoCapturer;
 import com.opentok.android.OpentokError;
 import com.opentok.android.Session;
 import com.opentok.android.Stream;
 import com.opentok.android.Publisher;
 import com.opentok.android.PublisherKit;
 
-import android.hardware.Camera;
+import android.media.projection.MediaProjection;
+import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.view.View;
 
-public class RNOpenTokPublisherView extends RNOpenTokView implements PublisherKit.PublisherListener {
+import java.util.ArrayList;
+import java.util.List;
+
+public class RNOpenTokPublisherView extends RNOpenTokView implements PublisherKit.PublisherListener, RNOpenTokScreenCapturer.StatsListener,
+        RNOpenTokScreenCapturer.StopListener, PublisherKit.VideoStatsListener, PublisherKit.AudioStatsListener,
+        PublisherKit.AudioLevelListener, RNOpenTokStatsCollector.Listener {
     private Publisher mPublisher;
+    private RNOpenTokStatsCollector mStatsCollector;
+    private boolean mPublishing = false;
+    private String mStreamId;
+    private boolean mPrewarm = false;
+    private boolean mAttached = false;
     private Boolean mAudioEnabled;
     private Boolean mVideoEnabled;
     private Boolean mScreenCapture;
     private CameraDirection mCameraDirection;
+    private CameraResolution mCameraResolution = CameraResolution.MEDIUM;
+    private int mCameraFps = RNOpenTokCameraCapturer.DEFAULT_FPS;
     private ReadableMap mScreenCaptureSettings;
+    private RNOpenTokSwitchableCapturer mCapturer;
+    private RNOpenTokCameraCapturer mCameraCapturer;
+    private RNOpenTokScreenCapturer mScreenCapturer;
+    @Nullable private FrameProcessorChain mVideoProcessors;
+
+    private long mMountedAt = -1;
+    private long mConnectedAt = -1;
+    private long mPreviewAt = -1;
+    private long mPublishedAt = -1;
 
     public enum CameraDirection {
         BACK,
         FRONT,
     };
 
+    public enum CameraResolution {
+        LOW(352, 288),
+        MEDIUM(640, 480),
+        HIGH(1280, 720);
+
+        final int width;
+        final int height;
+
+        CameraResolution(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+    };
+
     public RNOpenTokPublisherView(ThemedReactContext context) {
         super(context);
     }
@@ -36,13 +73,86 @@ public class RNOpenTokPublisherView extends RNOpenTokView implements PublisherKi
     @Override
     public void onAttachedToWindow() {
         super.onAttachedToWindow();
+        mAttached = true;
+        mMountedAt = SystemClock.elapsedRealtime();
         RNOpenTokSessionManager.getSessionManager().setPublisherListener(mSessionId, this);
+        if (mStatsCollector != null) {
+            mStatsCollector.start();
+        }
+        if (mPrewarm) {
+            prewarm();
+        }
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        RNOpenTokSessionManager.getSessionManager().removePublisherListener(mSessionId);
+        mAttached = false;
+        RNOpenTokSessionManager.getSessionManager().removePublisherListener(mSessionId, this);
+        if (mPublisher != null && !mPublishing) {
+            mPublisher.destroy();
+            cleanUpPublisher();
+        }
+        if (mStatsCollector != null) {
+            mStatsCollector.stop();
+        }
+    }
+
+    /** Milliseconds between {@code onPublisherStats} events, 0 turns sampling off. */
+    public void setStatsInterval(int interval) {
+        if (mStatsCollector != null) {
+            mStatsCollector.stop();
+            mStatsCollector = null;
+        }
+        if (interval > 0) {
+            mStatsCollector = new RNOpenTokStatsCollector(interval, getFrameCounter(), this);
+            if (mAttached) {
+                mStatsCollector.start();
+            }
+        }
+        if (mPublisher != null) {
+            updateStatsListeners();
+        }
+    }
+
+    /** Meters audio levels while the session manager needs them. */
+    public void updateAudioLevelListener() {
+        if (mPublisher == null) {
+            return;
+        }
+        boolean enabled = RNOpenTokSessionManager.getSessionManager().isAudioLevelMeteringEnabled();
+        mPublisher.setAudioLevelListener(enabled ? this : null);
+        if (!enabled) {
+            RNOpenTokSessionManager.getSessionManager().onAudioLevelsStopped(mSessionId, mStreamId);
+        }
+    }
+
+    private void updateStatsListeners() {
+        boolean enabled = mStatsCollector != null;
+        mPublisher.setVideoStatsListener(enabled ? this : null);
+        mPublisher.setAudioStatsListener(enabled ? this : null);
+    }
+
+    /**
+     * Builds the publisher and starts the local preview before the session connected,
+     * so it only has to be published once it is. Screen sharing publishers are still
+     * built on connect, since the capture view may not be mounted yet.
+     */
+    public void setPrewarm(Boolean prewarm) {
+        mPrewarm = prewarm != null && prewarm;
+        if (mPrewarm && mAttached) {
+            prewarm();
+        }
+    }
+
+    private void prewarm() {
+        if (mPublisher != null || Boolean.TRUE.equals(mScreenCapture)) {
+            return;
+        }
+        if (buildPublisher()) {
+            mPublisher.startPreview();
+            attachVideoView();
+        }
     }
 
     public void setAudio(Boolean enabled) {
@@ -54,116 +164,387 @@ public class RNOpenTokPublisherView extends RNOpenTokView implements PublisherKi
     }
 
     public void setVideo(Boolean enabled) {
+        mVideoEnabled = enabled;
+        updatePublishVideo();
+    }
+
+    /**
+     * Video is not published while the app is in the background, except when sharing
+     * the device screen, which is what the user is looking at then.
+     */
+    private void updatePublishVideo() {
         if (mPublisher != null) {
-            mPublisher.setPublishVideo(enabled);
+            mPublisher.setPublishVideo(!Boolean.FALSE.equals(mVideoEnabled) && !isPausedInBackground());
         }
+    }
 
-        mVideoEnabled = enabled;
+    private boolean isPausedInBackground() {
+        boolean background = mScreenCapturer != null && mCapturer != null
+                && mCapturer.getSource() == mScreenCapturer && mScreenCapturer.runsInBackground();
+        return !background && RNOpenTokSessionManager.getSessionManager().isHostPaused();
+    }
+
+    /** Called by the session manager when the app went to the background or came back. */
+    public void onHostPauseChanged() {
+        if (mCapturer == null) {
+            return;
+        }
+        if (isPausedInBackground()) {
+            mCapturer.onPause();
+        } else {
+            mCapturer.onResume();
+        }
+        updatePublishVideo();
     }
 
     public void cycleCamera() {
-        if (mPublisher != null) {
-            mPublisher.cycleCamera();
+        if (mCameraCapturer != null) {
+            mCameraCapturer.cycleCamera();
         }
     }
 
+    /** Also applies while screen sharing, for when the camera comes back. */
     public void setCameraDirection(CameraDirection cameraDirection) {
         mCameraDirection = cameraDirection;
-        if (mPublisher != null) {
-            updateCameraDirection();
+        if (mCameraCapturer != null) {
+            mCameraCapturer.swapCamera(getCameraIndex(mCameraDirection));
         }
     }
 
-    private void updateCameraDirection() {
-        if (mPublisher.getCapturer() instanceof BaseVideoCapturer.CaptureSwitch) {
-            ((BaseVideoCapturer.CaptureSwitch)mPublisher.getCapturer()).swapCamera(getCameraIndex(mCameraDirection));
-        }
+    /** Capture size and rate are negotiated with the camera, the closest supported ones are used. */
+    public void setCameraResolution(CameraResolution cameraResolution) {
+        mCameraResolution = cameraResolution;
+        updateCaptureFormat();
+    }
+
+    public void setCameraFps(int cameraFps) {
+        mCameraFps = cameraFps > 0 ? cameraFps : RNOpenTokCameraCapturer.DEFAULT_FPS;
+        updateCaptureFormat();
     }
 
-    private static int getCameraIndex(CameraDirection cameraDirection) {
-        int facing;
-        switch (cameraDirection) {
-            case BACK: facing = Camera.CameraInfo.CAMERA_FACING_BACK; break;
-            case FRONT: facing = Camera.CameraInfo.CAMERA_FACING_FRONT; break;
-            default: throw new IllegalArgumentException("Invalid cameraDirection value");
+    private void updateCaptureFormat() {
+        if (mCameraCapturer != null) {
+            mCameraCapturer.setCaptureFormat(mCameraResolution.width, mCameraResolution.height, mCameraFps);
         }
+    }
 
-        int numCameras = Camera.getNumberOfCameras();
-        for (int i = 0; i < numCameras; i++) {
-            Camera.CameraInfo info = new Camera.CameraInfo();
-            Camera.getCameraInfo(i, info);
-            if (info.facing == facing) {
-                return i;
-            }
+    private int getDefaultCameraIndex() {
+        if (mCameraDirection != null) {
+            return getCameraIndex(mCameraDirection);
         }
+        int index = mCameraCapturer.findCameraIndex(true);
+        return index != -1 ? index : 0;
+    }
 
-        throw new MissingCameraException("Cannot find camera facing " + cameraDirection);
+    private int getCameraIndex(CameraDirection cameraDirection) {
+        int index = mCameraCapturer.findCameraIndex(cameraDirection == CameraDirection.FRONT);
+        if (index == -1) {
+            throw new MissingCameraException("Cannot find camera facing " + cameraDirection);
+        }
+        return index;
     }
 
+    /**
+     * Switching a running publisher only swaps the source of its capturer, so the
+     * stream is kept and subscribers see the new video type without reconnecting.
+     */
     public void setScreenCapture(Boolean enabled) {
+        boolean changed = mScreenCapture != null && !mScreenCapture.equals(enabled);
         mScreenCapture = enabled;
-
-        // @TODO: recreate publisher on change
-//        if (mPublisher != null) {
-//            Session session = RNOpenTokSessionManager.getSessionManager().getSession(mSessionId);
-//            session.unpublish(mPublisher);
-//            RNOpenTokSessionManager.getSessionManager().removePublisherListener(mSessionId);
-//            cleanUpPublisher();
-//            startPublishing();
-//        }
+        if (changed && mPublisher != null) {
+            switchVideoSource();
+        }
     }
 
     public void setScreenCaptureSettings(@Nullable ReadableMap screenCaptureSettings) {
         mScreenCaptureSettings = screenCaptureSettings;
     }
 
-    private void startPublishing() {
-        Publisher.Builder builder = new Publisher.Builder(getContext());
-        builder.renderer(getVideoRenderer());
+    /**
+     * Processors run in order on every published frame, on their own thread. Regions
+     * are fractions of the frame; a processor that does not fit in the frame budget
+     * is skipped for that frame.
+     */
+    public void setVideoProcessors(@Nullable ReadableArray videoProcessors) {
+        List<FrameProcessor> processors = new ArrayList<>();
+        for (int i = 0; videoProcessors != null && i < videoProcessors.size(); i++) {
+            processors.add(createVideoProcessor(videoProcessors.getMap(i)));
+        }
+        mVideoProcessors = processors.isEmpty() ? null : new FrameProcessorChain(processors);
+        if (mCapturer != null) {
+            mCapturer.setProcessors(mVideoProcessors);
+        }
+    }
+
+    private static FrameProcessor createVideoProcessor(ReadableMap config) {
+        String type = config.getString("type");
+        switch (type) {
+            case "crop":
+                return new FrameProcessors.Crop(getFraction(config, "x", 0), getFraction(config, "y", 0),
+                        getFraction(config, "width", 1), getFraction(config, "height", 1));
+            case "mask":
+                return new FrameProcessors.Mask(getFraction(config, "x", 0), getFraction(config, "y", 0),
+                        getFraction(config, "width", 1), getFraction(config, "height", 1));
+            case "mirror":
+                return new FrameProcessors.Mirror();
+            case "downscale":
+                return new FrameProcessors.Downscale(config.getInt("maxWidth"), config.getInt("maxHeight"));
+            default: throw new IllegalArgumentException("Invalid video processor type " + type);
+        }
+    }
 
-        if (mScreenCapture) {
+    private static double getFraction(ReadableMap config, String key, double fallback) {
+        return config.hasKey(key) ? Math.max(0, Math.min(1, config.getDouble(key))) : fallback;
+    }
+
+    /**
+     * With {@code source: 'device'} the whole screen is captured through the projection
+     * granted to {@code requestScreenCapturePermission}, otherwise the tagged view.
+     */
+    @Nullable
+    private RNOpenTokScreenCapturer createScreenCapturer() {
+        RNOpenTokScreenCapturer capturer;
+        if (isDeviceScreenCapture()) {
+            MediaProjection projection = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                    ? RNOpenTokProjectionCapturer.takeProjection() : null;
+            if (projection == null) {
+                RNOpenTokEventDispatcher.getEventDispatcher().dispatch(Events.ERROR_NO_SCREEN_CAPTURE_PERMISSION, null);
+                return null;
+            }
+            capturer = new RNOpenTokProjectionCapturer(getContext(), projection, mScreenCaptureSettings);
+        } else {
             View captureView = ReactFindViewUtil.findView(this.getRootView(), "RN_OPENTOK_SCREEN_CAPTURE_VIEW");
             if (captureView == null) {
-                sendEvent(Events.ERROR_NO_SCREEN_CAPTURE_VIEW, null);
+                RNOpenTokEventDispatcher.getEventDispatcher().dispatch(Events.ERROR_NO_SCREEN_CAPTURE_VIEW, null);
+                return null;
+            }
+            capturer = new RNOpenTokScreenSharingCapturer(captureView, mScreenCaptureSettings);
+        }
+        capturer.setStatsListener(this);
+        capturer.setStopListener(this);
+        return capturer;
+    }
+
+    private boolean isDeviceScreenCapture() {
+        return mScreenCaptureSettings != null && mScreenCaptureSettings.hasKey("source")
+                && "device".equals(mScreenCaptureSettings.getString("source"));
+    }
+
+    /** The camera is kept while screen sharing, so switching back does not look it up again. */
+    private RNOpenTokCameraCapturer getCameraCapturer() {
+        if (mCameraCapturer == null) {
+            mCameraCapturer = RNOpenTokCameraCapturer.create(getContext());
+            mCameraCapturer.swapCamera(getDefaultCameraIndex());
+            updateCaptureFormat();
+        }
+        return mCameraCapturer;
+    }
+
+    private void switchVideoSource() {
+        if (Boolean.TRUE.equals(mScreenCapture)) {
+            RNOpenTokScreenCapturer screenCapturer = createScreenCapturer();
+            if (screenCapturer == null) {
                 return;
             }
-            builder.capturer(new RNOpenTokScreenSharingCapturer(captureView, mScreenCaptureSettings));
+            mScreenCapturer = screenCapturer;
+            mCapturer.setSource(screenCapturer);
+        } else {
+            mCapturer.setSource(getCameraCapturer());
+            if (mScreenCapturer != null) {
+                mScreenCapturer.destroy();
+                mScreenCapturer = null;
+            }
+        }
+        updateVideoType();
+        onHostPauseChanged();
+    }
+
+    private void updateVideoType() {
+        boolean screen = mCapturer.getSource() == mScreenCapturer;
+        mPublisher.setPublisherVideoType(screen
+                ? PublisherKit.PublisherKitVideoType.PublisherKitVideoTypeScreen
+                : PublisherKit.PublisherKitVideoType.PublisherKitVideoTypeCamera);
+        mPublisher.setAudioFallbackEnabled(!screen);
+    }
+
+    private boolean buildPublisher() {
+        Publisher.Builder builder = new Publisher.Builder(getContext());
+        builder.renderer(getVideoRenderer());
+
+        if (Boolean.TRUE.equals(mScreenCapture)) {
+            mScreenCapturer = createScreenCapturer();
+            if (mScreenCapturer == null) {
+                return false;
+            }
+            mCapturer = new RNOpenTokSwitchableCapturer(mScreenCapturer);
+        } else {
+            mCapturer = new RNOpenTokSwitchableCapturer(getCameraCapturer());
         }
+        mCapturer.setProcessors(mVideoProcessors);
+        builder.capturer(mCapturer);
 
         mPublisher = builder.build();
         mPublisher.setPublisherListener(this);
         mPublisher.setPublishAudio(mAudioEnabled);
-        mPublisher.setPublishVideo(mVideoEnabled);
+        updateVideoType();
+        onHostPauseChanged();
 
-        if (mScreenCapture) {
-            mPublisher.setPublisherVideoType(PublisherKit.PublisherKitVideoType.PublisherKitVideoTypeScreen);
-            mPublisher.setAudioFallbackEnabled(false);
+        if (mStatsCollector != null) {
+            mStatsCollector.clear();
         }
+        updateStatsListeners();
+        updateAudioLevelListener();
+        return true;
+    }
 
-        if (mCameraDirection != null) {
-            updateCameraDirection();
+    private void startPublishing() {
+        boolean prewarmed = mPublisher != null;
+        if (!prewarmed && !buildPublisher()) {
+            return;
         }
 
         Session session = RNOpenTokSessionManager.getSessionManager().getSession(mSessionId);
         session.publish(mPublisher);
+        mPublishing = true;
 
-        attachVideoView();
+        if (!prewarmed) {
+            attachVideoView();
+        }
     }
 
     private void cleanUpPublisher() {
+        RNOpenTokSessionManager.getSessionManager().onAudioLevelsStopped(mSessionId, mStreamId);
+        mStreamId = null;
         detachVideoView();
         mPublisher = null;
+        mPublishing = false;
+        if (mCapturer != null) {
+            mCapturer.setProcessors(null);
+            mCapturer = null;
+        }
+        if (mCameraCapturer != null) {
+            mCameraCapturer.destroy();
+            mCameraCapturer = null;
+        }
+        if (mScreenCapturer != null) {
+            mScreenCapturer.destroy();
+            mScreenCapturer = null;
+        }
+    }
+
+    @Nullable
+    public WritableMap getScreenCaptureStats() {
+        return mScreenCapturer != null ? mScreenCapturer.getStats() : null;
+    }
+
+    @Nullable
+    public WritableMap getVideoProcessorStats() {
+        return mCapturer != null && mVideoProcessors != null ? mCapturer.getProcessorStats() : null;
     }
 
     public void onConnected(Session session) {
+        mConnectedAt = SystemClock.elapsedRealtime();
         startPublishing();
     }
 
+    @Override
+    public void onFirstFrame() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPreviewAt == -1) {
+                    mPreviewAt = SystemClock.elapsedRealtime();
+                    sendMetrics();
+                }
+            }
+        });
+    }
+
+    /** Times since the view was mounted, -1 for milestones not reached yet. */
+    private void sendMetrics() {
+        WritableMap payload = Arguments.createMap();
+        payload.putBoolean("prewarm", mPrewarm);
+        payload.putDouble("timeToPreviewMs", since(mMountedAt, mPreviewAt));
+        payload.putDouble("timeToConnectMs", since(mMountedAt, mConnectedAt));
+        payload.putDouble("timeToPublishMs", since(mMountedAt, mPublishedAt));
+        payload.putDouble("connectToPublishMs", since(mConnectedAt, mPublishedAt));
+        sendEvent(Events.EVENT_PUBLISHER_METRICS, payload);
+    }
+
+    private static long since(long start, long end) {
+        return start == -1 || end == -1 ? -1 : end - start;
+    }
+
+    @Override
+    public void onScreenCaptureStats(WritableMap stats) {
+        sendCoalescedEvent(Events.EVENT_SCREEN_CAPTURE_STATS, stats);
+    }
+
+    @Override
+    public void onScreenCaptureStopped(String reason) {
+        WritableMap payload = Arguments.createMap();
+        payload.putString("reason", reason);
+        sendEvent(Events.EVENT_SCREEN_CAPTURE_STOP, payload);
+    }
+
+    @Override
+    public void onStats(WritableMap stats) {
+        if (mPublishing) {
+            sendCoalescedEvent(Events.EVENT_PUBLISHER_STATS, stats);
+        }
+    }
+
+    /** Levels are only attributed once the publisher has a stream. */
+    @Override
+    public void onAudioLevelUpdated(PublisherKit publisherKit, float audioLevel) {
+        if (publisherKit == mPublisher && mStreamId != null) {
+            RNOpenTokSessionManager.getSessionManager().onAudioLevel(mSessionId, mStreamId, audioLevel);
+        }
+    }
+
+    /** Stats listeners **/
+
+    /** With relayed sessions there is one entry per subscriber; their counters are summed. */
+    @Override
+    public void onVideoStats(PublisherKit publisherKit, PublisherKit.PublisherVideoStats[] stats) {
+        if (mStatsCollector == null) {
+            return;
+        }
+        long packets = 0, lost = 0, bytes = 0;
+        double timestamp = 0;
+        for (PublisherKit.PublisherVideoStats entry : stats) {
+            packets += entry.videoPacketsSent;
+            lost += entry.videoPacketsLost;
+            bytes += entry.videoBytesSent;
+            timestamp = Math.max(timestamp, entry.timeStamp);
+        }
+        mStatsCollector.onVideoStats(packets, lost, bytes, timestamp, stats.length);
+    }
+
+    @Override
+    public void onAudioStats(PublisherKit publisherKit, PublisherKit.PublisherAudioStats[] stats) {
+        if (mStatsCollector == null) {
+            return;
+        }
+        long packets = 0, lost = 0, bytes = 0;
+        double timestamp = 0;
+        for (PublisherKit.PublisherAudioStats entry : stats) {
+            packets += entry.audioPacketsSent;
+            lost += entry.audioPacketsLost;
+            bytes += entry.audioBytesSent;
+            timestamp = Math.max(timestamp, entry.timeStamp);
+        }
+        mStatsCollector.onAudioStats(packets, lost, bytes, timestamp, stats.length);
+    }
+
     /** Publisher listener **/
 
     @Override
     public void onStreamCreated(PublisherKit publisherKit, Stream stream) {
         sendEvent(Events.EVENT_PUBLISH_START, Arguments.createMap());
+        mStreamId = stream.getStreamId();
+        mPublishedAt = SystemClock.elapsedRealtime();
+        sendMetrics();
     }
 
     @Override
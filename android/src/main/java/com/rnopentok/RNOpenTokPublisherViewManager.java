@@ -4,8 +4,11 @@ import android.support.annotation.Nullable;
 
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.annotations.ReactProp;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 
+import java.util.Map;
+
 
 public class RNOpenTokPublisherViewManager extends RNOpenTokViewManager<RNOpenTokPublisherView> {
     @Override
@@ -18,6 +21,18 @@ public class RNOpenTokPublisherViewManager extends RNOpenTokViewManager<RNOpenTo
         return new RNOpenTokPublisherView(reactContext);
     }
 
+    @Override
+    public Map<String, Object> getExportedCustomDirectEventTypeConstants() {
+        return directEvents(
+                Events.EVENT_PUBLISH_START,
+                Events.EVENT_PUBLISH_STOP,
+                Events.EVENT_PUBLISH_ERROR,
+                Events.EVENT_SCREEN_CAPTURE_STATS,
+                Events.EVENT_SCREEN_CAPTURE_STOP,
+                Events.EVENT_PUBLISHER_METRICS,
+                Events.EVENT_PUBLISHER_STATS);
+    }
+
     @ReactProp(name = "mute")
     public void setMute(RNOpenTokPublisherView view, Boolean mute) {
         view.setAudio(!mute);
@@ -40,6 +55,23 @@ public class RNOpenTokPublisherViewManager extends RNOpenTokViewManager<RNOpenTo
         view.setCameraDirection(RNOpenTokPublisherView.CameraDirection.valueOf(cameraDirection.toUpperCase()));
     }
 
+    @ReactProp(name = "cameraResolution")
+    public void setCameraResolution(RNOpenTokPublisherView view, @Nullable String cameraResolution) {
+        view.setCameraResolution(cameraResolution != null
+                ? RNOpenTokPublisherView.CameraResolution.valueOf(cameraResolution.toUpperCase())
+                : RNOpenTokPublisherView.CameraResolution.MEDIUM);
+    }
+
+    @ReactProp(name = "cameraFps")
+    public void setCameraFps(RNOpenTokPublisherView view, int cameraFps) {
+        view.setCameraFps(cameraFps);
+    }
+
+    @ReactProp(name = "prewarm")
+    public void setPrewarm(RNOpenTokPublisherView view, Boolean prewarm) {
+        view.setPrewarm(prewarm);
+    }
+
     @ReactProp(name = "screenCapture")
     public void setScreenCapture(RNOpenTokPublisherView view, Boolean screenCapture) {
         view.setScreenCapture(screenCapture);
@@ -49,5 +81,14 @@ public class RNOpenTokPublisherViewManager extends RNOpenTokViewManager<RNOpenTo
     public void setScreenCaptureSettings(RNOpenTokPublisherView view, @Nullable ReadableMap screenCaptureSettings) {
         view.setScreenCaptureSettings(screenCaptureSettings);
     }
-}
 
+    @ReactProp(name = "videoProcessors")
+    public void setVideoProcessors(RNOpenTokPublisherView view, @Nullable ReadableArray videoProcessors) {
+        view.setVideoProcessors(videoProcessors);
+    }
+
+    @ReactProp(name = "statsInterval")
+    public void setStatsInterval(RNOpenTokPublisherView view, int statsInterval) {
+        view.setStatsInterval(statsInterval);
+    }
+}
@@ -0,0 +1,104 @@
+package com.rnopentok;
+
+import android.content.Context;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.opentok.android.BaseVideoRenderer;
+import com.opentok.android.VideoRenderFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Keeps renderers released by unmounted views so the next view showing video does
+ * not have to set up a new one and its surface. Renderers are pooled per class, at
+ * most {@link #MAX_PER_TYPE} of each, and only reused for views of the same context
+ * so a pooled renderer never outlives the screen it was made for. The pool is cleared
+ * when the host Activity is destroyed, since renderers keep its context alive.
+ */
+class RNOpenTokRendererPool {
+    static final int MAX_PER_TYPE = 4;
+
+    private static RNOpenTokRendererPool instance = null;
+
+    private final HashMap<Class<?>, ArrayDeque<BaseVideoRenderer>> mPool = new HashMap<>();
+    private Class<?> mDefaultType = null;
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mReleased = 0;
+    private long mDiscarded = 0;
+
+    static synchronized RNOpenTokRendererPool getRendererPool() {
+        if (instance == null) {
+            instance = new RNOpenTokRendererPool();
+        }
+        return instance;
+    }
+
+    /** Returns a pooled renderer of the type the SDK builds for this device, or a new one. */
+    synchronized BaseVideoRenderer acquire(Context context) {
+        ArrayDeque<BaseVideoRenderer> renderers = mDefaultType != null ? mPool.get(mDefaultType) : null;
+        if (renderers != null) {
+            Iterator<BaseVideoRenderer> iterator = renderers.iterator();
+            while (iterator.hasNext()) {
+                BaseVideoRenderer renderer = iterator.next();
+                if (renderer.getView().getContext() == context) {
+                    iterator.remove();
+                    mHits++;
+                    return renderer;
+                }
+            }
+        }
+
+        BaseVideoRenderer renderer = VideoRenderFactory.constructRenderer(context);
+        mDefaultType = renderer.getClass();
+        mMisses++;
+        return renderer;
+    }
+
+    /**
+     * The renderer's view must already be removed from its parent. Its video is turned
+     * off so the next view does not show the last frame of this one; the renderer gets
+     * it back with its first new frame, see {@link RNOpenTokFirstFrameRenderer}.
+     */
+    synchronized void release(BaseVideoRenderer renderer) {
+        renderer.onVideoPropertiesChanged(false);
+        ArrayDeque<BaseVideoRenderer> renderers = mPool.get(renderer.getClass());
+        if (renderers == null) {
+            renderers = new ArrayDeque<>(MAX_PER_TYPE);
+            mPool.put(renderer.getClass(), renderers);
+        }
+
+        if (renderers.size() >= MAX_PER_TYPE) {
+            renderers.pollFirst();
+            mDiscarded++;
+        }
+        renderers.addLast(renderer);
+        mReleased++;
+    }
+
+    synchronized void clear() {
+        for (ArrayDeque<BaseVideoRenderer> renderers : mPool.values()) {
+            mDiscarded += renderers.size();
+        }
+        mPool.clear();
+    }
+
+    synchronized WritableMap getStats() {
+        int pooled = 0;
+        for (ArrayDeque<BaseVideoRenderer> renderers : mPool.values()) {
+            pooled += renderers.size();
+        }
+
+        WritableMap stats = Arguments.createMap();
+        stats.putDouble("hits", mHits);
+        stats.putDouble("misses", mMisses);
+        stats.putDouble("released", mReleased);
+        stats.putDouble("discarded", mDiscarded);
+        stats.putInt("pooled", pooled);
+        return stats;
+    }
+}
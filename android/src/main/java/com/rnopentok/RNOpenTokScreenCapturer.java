@@ -0,0 +1,70 @@
+package com.rnopentok;
+
+import android.support.annotation.Nullable;
+
+import com.facebook.react.bridge.WritableMap;
+import com.opentok.android.BaseVideoCapturer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Screen source for {@link RNOpenTokSwitchableCapturer}, either a React view drawn by
+ * {@link RNOpenTokScreenSharingCapturer} or the whole device through
+ * {@link RNOpenTokProjectionCapturer}.
+ */
+abstract class RNOpenTokScreenCapturer extends BaseVideoCapturer implements RNOpenTokSwitchableCapturer.Source {
+    public interface StatsListener {
+        void onScreenCaptureStats(WritableMap stats);
+    }
+
+    public interface StopListener {
+        /** Called on the main thread when capture ended outside of the app's control. */
+        void onScreenCaptureStopped(String reason);
+    }
+
+    @Nullable private volatile RNOpenTokSwitchableCapturer mOutput;
+    @Nullable private volatile StopListener mStopListener;
+
+    public abstract void setStatsListener(@Nullable StatsListener listener);
+
+    public void setStopListener(@Nullable StopListener listener) {
+        mStopListener = listener;
+    }
+
+    protected void notifyStopped(String reason) {
+        StopListener listener = mStopListener;
+        if (listener != null) {
+            listener.onScreenCaptureStopped(reason);
+        }
+    }
+
+    public abstract WritableMap getStats();
+
+    /** Whether capture goes on while the app is in the background. */
+    boolean runsInBackground() {
+        return false;
+    }
+
+    @Override
+    public void setOutput(@Nullable RNOpenTokSwitchableCapturer output) {
+        mOutput = output;
+    }
+
+    protected void provideFrame(ByteBuffer frame, int format, int width, int height) {
+        RNOpenTokSwitchableCapturer output = mOutput;
+        if (output != null) {
+            output.deliverBufferFrame(frame, format, width, height, 0, false);
+        } else {
+            provideBufferFrame(frame, format, width, height, 0, false);
+        }
+    }
+
+    protected void provideFrame(int[] frame, int format, int width, int height) {
+        RNOpenTokSwitchableCapturer output = mOutput;
+        if (output != null) {
+            output.deliverIntArrayFrame(frame, format, width, height, 0, false);
+        } else {
+            provideIntArrayFrame(frame, format, width, height, 0, false);
+        }
+    }
+}
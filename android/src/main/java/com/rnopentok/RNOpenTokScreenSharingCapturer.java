@@ -2,76 +2,293 @@ package com.rnopentok;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
 import android.view.View;
 import android.support.annotation.Nullable;
 
-import com.opentok.android.BaseVideoCapturer;
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
 
+import java.nio.ByteBuffer;
 
-public class RNOpenTokScreenSharingCapturer extends BaseVideoCapturer {
 
-    private boolean capturing = false;
+/**
+ * Only {@link View#draw} runs on the UI thread. Pixel extraction, diffing and delivery
+ * to the SDK happen on a dedicated worker thread, which works on one of several
+ * bitmaps so the UI thread never waits for it. When every bitmap is still queued
+ * on the worker, the frame is dropped instead.
+ */
+public class RNOpenTokScreenSharingCapturer extends RNOpenTokScreenCapturer {
+    private static final int POOLED_BUFFERS = 4;
+    private static final int FRAME_SLOTS = 3;
+    private static final int MSG_FRAME = 1;
+
+    private volatile boolean capturing = false;
+    private boolean paused = false;
     private View mView;
 
     private int fps = 15;
-    private int width = 0;
-    private int height = 0;
+    private int minFps = 1;
+    private boolean adaptiveFps = true;
+    private int statsInterval = 1000;
+    private volatile int width = 0;
+    private volatile int height = 0;
+    private int maxWidth = 0;
+    private int maxHeight = 0;
+    private boolean i420Output = false;
+    private boolean bufferFrames = true;
+    private boolean skipUnchangedFrames = true;
+    private int keepaliveInterval = 1000;
+    private int tileSize = 32;
+
+    private final FrameSlot[] mSlots = new FrameSlot[FRAME_SLOTS];
+    private int mNextSlot = 0;
 
+    /* Owned by the worker thread */
     private int[] frame;
-    private Bitmap bmp;
-    private Canvas canvas;
+    private final FrameBufferPool mBufferPool = new FrameBufferPool(POOLED_BUFFERS);
+    private FrameTileDiffer mDiffer;
+    private final FrameScaler mScaler = new FrameScaler();
+    private long mLastFrameSentAt = 0;
+
+    private volatile long mFramesSkipped = 0;
+    private volatile long mFramesDroppedBusy = 0;
+    private volatile long mBitmapAllocations = 0;
+    private volatile long mArrayAllocations = 0;
+    private volatile long mFramesCaptured = 0;
 
-    private Handler mHandler = new Handler();
+    private FrameClock mClock;
+    private StatsListener mStatsListener;
+    private long mLastStatsAt = 0;
+    private long mFramesAtLastStats = 0;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread mWorkerThread;
+    private Handler mWorker;
+
+    private static final class FrameSlot {
+        Bitmap bitmap;
+        Canvas canvas;
+        int width;
+        int height;
+        long drawNanos;
+        volatile boolean busy = false;
+    }
 
     private Runnable newFrame = new Runnable() {
         @Override
         public void run() {
-            if (capturing) {
+            if (capturing && !paused) {
+                long now = SystemClock.uptimeMillis();
+                mClock.tick(now);
+
                 int width = mView.getWidth();
                 int height = mView.getHeight();
 
-                if (
-                    frame == null ||
-                    RNOpenTokScreenSharingCapturer.this.width != width ||
-                    RNOpenTokScreenSharingCapturer.this.height != height
-                ) {
-                    RNOpenTokScreenSharingCapturer.this.width = width;
-                    RNOpenTokScreenSharingCapturer.this.height = height;
-
-                    if (bmp != null) {
-                        bmp.recycle();
-                        bmp = null;
-                    }
+                if (width > 0 && height > 0) {
+                    FrameSlot slot = acquireSlot();
+                    if (slot == null) {
+                        mFramesDroppedBusy++;
+                    } else {
+                        long drawStart = System.nanoTime();
+                        prepareSlot(slot, width, height);
 
-                    bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                        slot.canvas.save(Canvas.MATRIX_SAVE_FLAG);
+                        slot.canvas.translate(-mView.getScrollX(), -mView.getScrollY());
+                        mView.draw(slot.canvas);
+                        slot.canvas.restore();
+                        slot.drawNanos = System.nanoTime() - drawStart;
 
-                    canvas = new Canvas(bmp);
-                    frame = new int[width * height];
+                        slot.busy = true;
+                        mWorker.obtainMessage(MSG_FRAME, slot).sendToTarget();
+                        mFramesCaptured++;
+                    }
                 }
-                canvas.save(Canvas.MATRIX_SAVE_FLAG);
-                canvas.translate(-mView.getScrollX(), -mView.getScrollY());
-                mView.draw(canvas);
-                bmp.getPixels(frame, 0, width, 0, 0, width, height);
 
-                provideIntArrayFrame(frame, ARGB, width, height, 0, false);
+                reportStats(now);
+                mHandler.postAtTime(newFrame, mClock.nextDeadline());
+            }
+        }
+    };
+
+    private final Handler.Callback mWorkerCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            if (msg.what != MSG_FRAME) {
+                return false;
+            }
+            FrameSlot slot = (FrameSlot) msg.obj;
+            long start = System.nanoTime();
+            try {
+                if (capturing) {
+                    if (bufferFrames) {
+                        provideBitmapBuffer(slot.bitmap, slot.width, slot.height);
+                    } else {
+                        provideBitmapArray(slot.bitmap, slot.width, slot.height);
+                    }
+                }
+            } finally {
+                long cost = slot.drawNanos + System.nanoTime() - start;
+                slot.busy = false;
+                mClock.onFrameCost(cost / 1e6, SystemClock.uptimeMillis());
+            }
+            return true;
+        }
+    };
 
-                canvas.restore();
+    @Nullable
+    private FrameSlot acquireSlot() {
+        for (int i = 0; i < FRAME_SLOTS; i++) {
+            int index = (mNextSlot + i) % FRAME_SLOTS;
+            if (mSlots[index] == null) {
+                mSlots[index] = new FrameSlot();
+            }
+            if (!mSlots[index].busy) {
+                mNextSlot = (index + 1) % FRAME_SLOTS;
+                return mSlots[index];
+            }
+        }
+        return null;
+    }
 
-                mHandler.postDelayed(newFrame, 1000 / fps);
+    private void prepareSlot(FrameSlot slot, int width, int height) {
+        if (slot.bitmap != null && slot.width == width && slot.height == height) {
+            return;
+        }
 
+        if (
+            slot.bitmap != null &&
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT &&
+            slot.bitmap.getAllocationByteCount() >= width * height * 4
+        ) {
+            slot.bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+            slot.bitmap.eraseColor(Color.TRANSPARENT);
+        } else {
+            if (slot.bitmap != null) {
+                slot.bitmap.recycle();
             }
+            slot.bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mBitmapAllocations++;
         }
-    };
+
+        if (slot.canvas == null) {
+            slot.canvas = new Canvas(slot.bitmap);
+        } else {
+            slot.canvas.setBitmap(slot.bitmap);
+        }
+        slot.width = width;
+        slot.height = height;
+    }
+
+    /**
+     * Copies the bitmap once into a pooled direct buffer. Bitmap memory is laid out as
+     * R, G, B, A bytes, which the SDK names ABGR.
+     */
+    private void provideBitmapBuffer(Bitmap bmp, int width, int height) {
+        int stride = bmp.getRowBytes();
+        ByteBuffer buffer = mBufferPool.acquire(stride * height);
+        bmp.copyPixelsToBuffer(buffer);
+        buffer.rewind();
+
+        if (!skipUnchangedFrames || shouldSend(mDiffer.update(buffer, width, height, stride))) {
+            deliverBuffer(buffer, width, height, stride);
+        }
+        mBufferPool.release(buffer);
+    }
+
+    /**
+     * Downscales to the configured maximum size keeping the aspect ratio, and converts
+     * to I420 when requested, so the SDK does not have to convert the frame again.
+     */
+    private void deliverBuffer(ByteBuffer frame, int width, int height, int stride) {
+        long size = FrameScaler.fitSize(width, height, maxWidth, maxHeight, i420Output);
+        int outWidth = FrameScaler.fitWidth(size);
+        int outHeight = FrameScaler.fitHeight(size);
+
+        ByteBuffer scaled = null;
+        if (outWidth != width || outHeight != height) {
+            scaled = mBufferPool.acquire(outWidth * outHeight * 4);
+            mScaler.scale(frame, width, height, stride, scaled, outWidth, outHeight, outWidth * 4);
+            frame = scaled;
+            stride = outWidth * 4;
+        }
+        this.width = outWidth;
+        this.height = outHeight;
+
+        if (i420Output) {
+            ByteBuffer yuv = mBufferPool.acquire(ArgbToI420Converter.frameSize(outWidth, outHeight));
+            ArgbToI420Converter.convert(frame, outWidth, outHeight, stride, yuv);
+            provideFrame(yuv, I420, outWidth, outHeight);
+            mBufferPool.release(yuv);
+        } else {
+            provideFrame(frame, ABGR, outWidth, outHeight);
+        }
+        mBufferPool.release(scaled);
+    }
+
+    private void provideBitmapArray(Bitmap bmp, int width, int height) {
+        if (frame == null || frame.length < width * height) {
+            frame = new int[width * height];
+            mArrayAllocations++;
+        }
+        bmp.getPixels(frame, 0, width, 0, 0, width, height);
+        this.width = width;
+        this.height = height;
+
+        if (!skipUnchangedFrames || shouldSend(mDiffer.update(frame, width, height))) {
+            provideFrame(frame, ARGB, width, height);
+        }
+    }
+
+    /**
+     * Unchanged frames are dropped, except for a low-rate keepalive so subscribers
+     * joining late still get a picture.
+     */
+    private boolean shouldSend(int dirtyTiles) {
+        long now = SystemClock.uptimeMillis();
+        if (dirtyTiles == 0 && now - mLastFrameSentAt < keepaliveInterval) {
+            mFramesSkipped++;
+            return false;
+        }
+        mLastFrameSentAt = now;
+        return true;
+    }
 
     public RNOpenTokScreenSharingCapturer(View view, @Nullable ReadableMap captureSettings) {
         mView = view;
         if (captureSettings != null) {
             fps = captureSettings.hasKey("fps") ? captureSettings.getInt("fps") : fps;
+            minFps = captureSettings.hasKey("minFps") ? captureSettings.getInt("minFps") : minFps;
+            adaptiveFps = captureSettings.hasKey("adaptiveFps") ? captureSettings.getBoolean("adaptiveFps") : adaptiveFps;
+            statsInterval = captureSettings.hasKey("statsInterval") ? captureSettings.getInt("statsInterval") : statsInterval;
             width = captureSettings.hasKey("width") ? captureSettings.getInt("width") : width;
             height = captureSettings.hasKey("height") ? captureSettings.getInt("height") : height;
+            bufferFrames = captureSettings.hasKey("bufferFrames") ? captureSettings.getBoolean("bufferFrames") : bufferFrames;
+            skipUnchangedFrames = captureSettings.hasKey("skipUnchangedFrames") ? captureSettings.getBoolean("skipUnchangedFrames") : skipUnchangedFrames;
+            keepaliveInterval = captureSettings.hasKey("keepaliveInterval") ? captureSettings.getInt("keepaliveInterval") : keepaliveInterval;
+            tileSize = captureSettings.hasKey("tileSize") ? captureSettings.getInt("tileSize") : tileSize;
+            maxWidth = captureSettings.hasKey("maxWidth") ? captureSettings.getInt("maxWidth") : width;
+            maxHeight = captureSettings.hasKey("maxHeight") ? captureSettings.getInt("maxHeight") : height;
+            i420Output = captureSettings.hasKey("format") && "i420".equalsIgnoreCase(captureSettings.getString("format"));
         }
+        if (maxWidth > 0 || maxHeight > 0 || i420Output) {
+            // Scaling and conversion work on the pooled buffers only.
+            bufferFrames = true;
+        }
+        mDiffer = new FrameTileDiffer(tileSize);
+        mClock = new FrameClock(fps, minFps, adaptiveFps);
+    }
+
+    @Override
+    public void setStatsListener(@Nullable StatsListener listener) {
+        mStatsListener = listener;
     }
 
     @Override
@@ -81,8 +298,17 @@ public class RNOpenTokScreenSharingCapturer extends BaseVideoCapturer {
 
     @Override
     public int startCapture() {
+        if (mWorkerThread == null) {
+            mWorkerThread = new HandlerThread("RNOpenTokScreenCapture");
+            mWorkerThread.start();
+            mWorker = new Handler(mWorkerThread.getLooper(), mWorkerCallback);
+        }
         capturing = true;
-        mHandler.postDelayed(newFrame, 1000 / fps);
+        long now = SystemClock.uptimeMillis();
+        mClock.start(now);
+        mLastStatsAt = now;
+        mFramesAtLastStats = mFramesCaptured;
+        mHandler.postAtTime(newFrame, mClock.nextDeadline());
         return 0;
     }
 
@@ -101,26 +327,106 @@ public class RNOpenTokScreenSharingCapturer extends BaseVideoCapturer {
     @Override
     public CaptureSettings getCaptureSettings() {
         CaptureSettings settings = new CaptureSettings();
-        settings.fps = fps;
+        settings.fps = mClock.getTargetFps();
         settings.width = width;
         settings.height = height;
-        settings.format = ARGB;
+        settings.format = i420Output ? I420 : bufferFrames ? ABGR : ARGB;
         return settings;
     }
 
     @Override
     public void destroy() {
+        stopCapture();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseWorker();
+            }
+        });
+    }
 
+    /**
+     * Runs on the UI thread after the last draw; the worker recycles the bitmaps once
+     * every frame already queued on it has been handled.
+     */
+    private void releaseWorker() {
+        if (mWorkerThread == null) {
+            return;
+        }
+        final HandlerThread workerThread = mWorkerThread;
+        mWorker.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < FRAME_SLOTS; i++) {
+                    if (mSlots[i] != null && mSlots[i].bitmap != null) {
+                        mSlots[i].bitmap.recycle();
+                    }
+                    mSlots[i] = null;
+                }
+                mBufferPool.clear();
+                frame = null;
+                workerThread.quit();
+            }
+        });
+        mWorkerThread = null;
+        mWorker = null;
     }
 
+    /** The view is not on screen while the app is in the background, so nothing is drawn. */
     @Override
     public void onPause() {
-
+        paused = true;
+        mHandler.removeCallbacks(newFrame);
     }
 
     @Override
     public void onResume() {
+        if (!paused) {
+            return;
+        }
+        paused = false;
+        if (capturing) {
+            mClock.start(SystemClock.uptimeMillis());
+            mHandler.postAtTime(newFrame, mClock.nextDeadline());
+        }
+    }
 
+    private void reportStats(long now) {
+        if (mStatsListener == null || statsInterval <= 0 || now - mLastStatsAt < statsInterval) {
+            return;
+        }
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("fps", mClock.getFps());
+        stats.putInt("targetFps", mClock.getTargetFps());
+        stats.putDouble("achievedFps", (mFramesCaptured - mFramesAtLastStats) * 1000.0 / (now - mLastStatsAt));
+        stats.putDouble("droppedFrames", mClock.getDroppedFrames() + mFramesDroppedBusy);
+        stats.putDouble("captureTimeMs", mClock.getAverageCost());
+        mStatsListener.onScreenCaptureStats(stats);
+
+        mLastStatsAt = now;
+        mFramesAtLastStats = mFramesCaptured;
     }
 
+    @Override
+    public WritableMap getStats() {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("width", width);
+        stats.putInt("height", height);
+        stats.putDouble("framesCaptured", mFramesCaptured);
+        stats.putInt("fps", mClock.getFps());
+        stats.putDouble("deadlinesMissed", mClock.getDroppedFrames());
+        stats.putDouble("captureTimeMs", mClock.getAverageCost());
+        stats.putDouble("bitmapAllocations", mBitmapAllocations);
+        stats.putDouble("arrayAllocations", mArrayAllocations);
+        stats.putDouble("bufferAllocations", mBufferPool.getAllocationCount());
+        stats.putDouble("bufferReuses", mBufferPool.getReuseCount());
+        stats.putDouble("pooledBytes", mBufferPool.getPooledBytes());
+        stats.putDouble("framesSkipped", mFramesSkipped);
+        stats.putDouble("framesDroppedBusy", mFramesDroppedBusy);
+        stats.putDouble("changedFrames", mDiffer.getChangedFrameCount());
+        stats.putInt("tiles", mDiffer.getTileCount());
+        stats.putInt("lastDirtyTiles", mDiffer.getLastDirtyTiles());
+        stats.putDouble("dirtyTileRatio", mDiffer.getDirtyRatio());
+        return stats;
+    }
 }
@@ -2,37 +2,81 @@ package com.rnopentok;
 
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.opentok.android.Connection;
 import com.opentok.android.OpentokError;
 import com.opentok.android.Session;
 
 import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.UiThreadUtil;
 import com.opentok.android.Stream;
 
-import java.util.HashMap;
+import com.rnopentok.ConnectedSessions.State;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+
+/**
+ * Connected sessions and their state are kept in {@link ConnectedSessions}, publishers
+ * in a {@link SessionRegistry} and subscriber views in a router per session: they are
+ * written from the bridge and UI threads and read from SDK callbacks, which never block
+ * on them. A view only ever removes its own registration. Routers and video stream
+ * limits outlive connections, since views and limits can be set before connecting.
+ */
 public class RNOpenTokSessionManager implements Session.ConnectionListener, Session.SessionListener, Session.SignalListener, Session.ReconnectionListener, Session.ArchiveListener{
-    private static RNOpenTokSessionManager instance = null;
+    /** Audio levels arrive many times a second; video slots are re-ranked at most this often. */
+    private static final long VIDEO_POLICY_UPDATE_INTERVAL = 250;
+
+    private static volatile RNOpenTokSessionManager instance = null;
     private ReactApplicationContext mContext;
-    private String mApiKey;
-    private HashMap<String, Session> mSessions;
-    private HashMap<String, RNOpenTokSubscriberView> mSubscribers;
-    private HashMap<String, RNOpenTokPublisherView> mPublishers;
+    private volatile String mApiKey;
+    private final ConnectedSessions<Session, RNOpenTokSignalCodec> mSessions;
+    private final ConcurrentHashMap<String, RNOpenTokStreamRouter> mRouters;
+    private final ConcurrentHashMap<String, Integer> mMaxVideoStreams;
+    private volatile RNOpenTokSignalOutbox.Options mSignalOptions = new RNOpenTokSignalOutbox.Options();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final SessionRegistry<RNOpenTokPublisherView> mPublishers;
+    private final Set<String> mVideoPolicyUpdates = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean mActiveSpeakerDetection = false;
+
+    private volatile boolean mHostPaused = false;
+    private long mHostStateSince = SystemClock.elapsedRealtime();
+    private long mForegroundTime = 0;
+    private long mBackgroundTime = 0;
+    private long mHostPauses = 0;
 
     private RNOpenTokSessionManager(ReactApplicationContext context, String apiKey) {
-        this.mSessions = new HashMap<>();
-        this.mSubscribers = new HashMap<String, RNOpenTokSubscriberView>();
-        this.mPublishers = new HashMap<String, RNOpenTokPublisherView>();
+        this.mSessions = new ConnectedSessions<>(new ConnectedSessions.Listener<Session>() {
+            @Override
+            public void onSessionReleased(Session session) {
+                session.disconnect();
+                clearStreams(session);
+            }
+        });
+        this.mRouters = new ConcurrentHashMap<>();
+        this.mMaxVideoStreams = new ConcurrentHashMap<>();
+        this.mPublishers = new SessionRegistry<>();
         this.mApiKey = apiKey;
         this.mContext = context;
     }
 
     static RNOpenTokSessionManager initSessionManager(ReactApplicationContext context) {
+        if (instance == null) {
+            createSessionManager(context);
+        }
+        return instance;
+    }
+
+    private static synchronized void createSessionManager(ReactApplicationContext context) {
         if (instance == null) {
             String apiKey = "";
             ApplicationInfo ai = null;
@@ -44,7 +88,6 @@ public class RNOpenTokSessionManager implements Session.ConnectionListener, Sess
             }
             instance = new RNOpenTokSessionManager(context, apiKey);
         }
-        return instance;
     }
 
     static RNOpenTokSessionManager getSessionManager() {
@@ -64,100 +107,497 @@ public class RNOpenTokSessionManager implements Session.ConnectionListener, Sess
                     }
                 }).build();
         // Session session = new Session(this.mContext, this.mApiKey, sessionId);
+
+        // Listeners go in before connecting so no early callback is missed.
+        session.setSessionListener(this);
+        session.setSignalListener(this);
+        session.setReconnectionListener(this);
+        session.setArchiveListener(this);
+        session.setConnectionListener(this);
+
+        RNOpenTokSignalCodec codec = new RNOpenTokSignalCodec();
+        State<Session, RNOpenTokSignalCodec> state = new State<>(session, codec, createSignalOutbox(session, codec));
+        Integer maxVideoStreams = this.mMaxVideoStreams.get(sessionId);
+        if (maxVideoStreams != null) {
+            state.videoPolicy.setMaxStreams(maxVideoStreams);
+        }
+        this.mSessions.connect(sessionId, state);
         session.connect(token);
-        this.mSessions.put(sessionId, session);
 
         return session;
     }
 
     public Session getSession(String sessionId) {
-        return this.mSessions.get(sessionId);
+        State<Session, RNOpenTokSignalCodec> state = this.mSessions.get(sessionId);
+        return state != null ? state.session : null;
     }
 
     public void disconnectSession(String sessionId) {
-        Session session = this.mSessions.get(sessionId);
+        this.mSessions.disconnect(sessionId);
+    }
 
-        if (session != null) {
-            session.disconnect();
-            this.mSessions.remove(sessionId);
+    public void disconnectAllSessions() {
+        for (String sessionId: this.mSessions.getIds()) {
+            disconnectSession(sessionId);
         }
     }
 
-    public void disconnectAllSessions() {
-        for (Session session: this.mSessions.values()) {
-            session.disconnect();
+    /**
+     * Turns audio level metering of all publishers and subscribers on or off. While on,
+     * {@code onActiveSpeakerChanged} is sent whenever the dominant speaker of a
+     * session changes.
+     */
+    public void setActiveSpeakerDetection(boolean enabled) {
+        this.mActiveSpeakerDetection = enabled;
+        if (!enabled) {
+            for (State<Session, RNOpenTokSignalCodec> state : this.mSessions.getStates()) {
+                state.speakers.clear();
+            }
+        }
+        updateAudioLevelListeners();
+    }
+
+    /** Audio levels are needed for active speaker detection and for ranking video streams. */
+    public boolean isAudioLevelMeteringEnabled() {
+        if (this.mActiveSpeakerDetection) {
+            return true;
         }
-        this.mSessions.clear();
+        for (int maxStreams : this.mMaxVideoStreams.values()) {
+            if (maxStreams > 0) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    public void setSubscriberListener (String sessionId, RNOpenTokSubscriberView subscriber) {
-        this.mSubscribers.put(sessionId, subscriber);
+    private void updateAudioLevelListeners() {
+        for (RNOpenTokPublisherView publisher : this.mPublishers.getEntries()) {
+            publisher.updateAudioLevelListener();
+        }
+        for (RNOpenTokStreamRouter router : this.mRouters.values()) {
+            for (RNOpenTokSubscriberView subscriber : router.getViews()) {
+                subscriber.updateAudioLevelListener();
+            }
+        }
+    }
+
+    /**
+     * Called on the UI thread when the app goes to the background and comes back.
+     * While in the background sessions are paused and video stops in both directions;
+     * audio keeps flowing, so a call goes on.
+     */
+    public void setHostPaused(boolean paused) {
+        synchronized (this) {
+            if (paused == this.mHostPaused) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (this.mHostPaused) {
+                this.mBackgroundTime += now - this.mHostStateSince;
+            } else {
+                this.mForegroundTime += now - this.mHostStateSince;
+            }
+            this.mHostStateSince = now;
+            this.mHostPaused = paused;
+            if (paused) {
+                this.mHostPauses++;
+            }
+        }
+
+        for (State<Session, RNOpenTokSignalCodec> state : this.mSessions.getStates()) {
+            if (paused) {
+                state.session.onPause();
+            } else {
+                state.session.onResume();
+            }
+        }
+        for (RNOpenTokPublisherView publisher : this.mPublishers.getEntries()) {
+            publisher.onHostPauseChanged();
+        }
+        for (RNOpenTokStreamRouter router : this.mRouters.values()) {
+            for (RNOpenTokSubscriberView subscriber : router.getViews()) {
+                subscriber.onHostPauseChanged();
+            }
+        }
     }
 
-    public void removeSubscriberListener (String sessionId) {
-        this.mSubscribers.remove(sessionId);
+    public boolean isHostPaused() {
+        return this.mHostPaused;
+    }
+
+    /** Time spent in the foreground and background, including the current state. */
+    public synchronized WritableMap getLifecycleStats() {
+        long current = SystemClock.elapsedRealtime() - this.mHostStateSince;
+        WritableMap stats = Arguments.createMap();
+        stats.putString("state", this.mHostPaused ? "background" : "foreground");
+        stats.putDouble("foregroundTimeMs", this.mForegroundTime + (this.mHostPaused ? 0 : current));
+        stats.putDouble("backgroundTimeMs", this.mBackgroundTime + (this.mHostPaused ? current : 0));
+        stats.putDouble("pauses", this.mHostPauses);
+        return stats;
+    }
+
+    /**
+     * Limits how many subscribers of a session receive video, 0 or less for no limit.
+     * The others stay audio-only; see {@link VideoSlotPolicy} for how streams are picked.
+     */
+    public void setMaxVideoStreams(String sessionId, int maxStreams) {
+        if (sessionId == null) {
+            return;
+        }
+        this.mMaxVideoStreams.put(sessionId, maxStreams);
+        State<Session, RNOpenTokSignalCodec> state = this.mSessions.get(sessionId);
+        if (state != null) {
+            state.videoPolicy.setMaxStreams(maxStreams);
+        }
+        updateAudioLevelListeners();
+        updateVideoPolicy(sessionId);
+    }
+
+    /** Called by subscriber views when they start showing a stream or their rank changes. */
+    public void onSubscriberRanked(String sessionId, String streamId, boolean pinned, int priority) {
+        if (sessionId == null || streamId == null) {
+            return;
+        }
+        VideoSlotPolicy policy = getVideoPolicy(sessionId);
+        if (policy == null) {
+            return;
+        }
+        policy.add(streamId, SystemClock.elapsedRealtime());
+        policy.setRank(streamId, pinned, priority);
+        updateVideoPolicy(sessionId);
+    }
+
+    public void onSubscriberStopped(String sessionId, String streamId) {
+        VideoSlotPolicy policy = getVideoPolicy(sessionId);
+        if (policy != null && streamId != null) {
+            policy.remove(streamId);
+            updateVideoPolicy(sessionId);
+        }
+    }
+
+    public boolean isVideoAllowed(String sessionId, String streamId) {
+        VideoSlotPolicy policy = getVideoPolicy(sessionId);
+        return policy == null || streamId == null || policy.hasVideo(streamId);
+    }
+
+    private VideoSlotPolicy getVideoPolicy(String sessionId) {
+        State<Session, RNOpenTokSignalCodec> state = this.mSessions.get(sessionId);
+        return state != null ? state.videoPolicy : null;
+    }
+
+    /** Re-evaluates the video slots and tells the views of the session when they changed. */
+    private void updateVideoPolicy(String sessionId) {
+        VideoSlotPolicy policy = getVideoPolicy(sessionId);
+        if (policy == null || !policy.update(SystemClock.elapsedRealtime())) {
+            return;
+        }
+
+        RNOpenTokStreamRouter router = this.mRouters.get(sessionId);
+        if (router != null) {
+            for (RNOpenTokSubscriberView subscriber : router.getViews()) {
+                subscriber.onVideoPolicyChanged();
+            }
+        }
+
+        WritableArray streamIds = Arguments.createArray();
+        for (String streamId : policy.getVideoStreams()) {
+            streamIds.pushString(streamId);
+        }
+        WritableMap payload = Arguments.createMap();
+        payload.putString("sessionId", sessionId);
+        payload.putArray("streamIds", streamIds);
+        sendEvent(Events.ON_VIDEO_STREAMS_CHANGED, payload, sessionId);
+    }
+
+    /** Merges the updates asked for until the next {@link #VIDEO_POLICY_UPDATE_INTERVAL}. */
+    private void scheduleVideoPolicyUpdate(final String sessionId) {
+        if (!this.mVideoPolicyUpdates.add(sessionId)) {
+            return;
+        }
+        mHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mVideoPolicyUpdates.remove(sessionId);
+                updateVideoPolicy(sessionId);
+            }
+        }, VIDEO_POLICY_UPDATE_INTERVAL);
+    }
+
+    public WritableMap getVideoPolicyStats() {
+        WritableMap stats = Arguments.createMap();
+        for (State<Session, RNOpenTokSignalCodec> state : this.mSessions.getStates()) {
+            VideoSlotPolicy policy = state.videoPolicy;
+            WritableMap session = Arguments.createMap();
+            session.putInt("maxVideoStreams", policy.getMaxStreams());
+            session.putInt("streams", policy.getStreamCount());
+            session.putInt("videoStreams", policy.getVideoStreams().size());
+            session.putDouble("reassignments", policy.getReassignmentCount());
+            stats.putMap(state.session.getSessionId(), session);
+        }
+        return stats;
+    }
+
+    public void onAudioLevel(String sessionId, String streamId, float level) {
+        if (sessionId == null || streamId == null) {
+            return;
+        }
+
+        State<Session, RNOpenTokSignalCodec> state = this.mSessions.get(sessionId);
+        if (state == null) {
+            return;
+        }
+        VideoSlotPolicy policy = state.videoPolicy;
+        if (policy.getMaxStreams() > 0) {
+            policy.onAudioLevel(streamId, level, SystemClock.elapsedRealtime());
+            scheduleVideoPolicyUpdate(sessionId);
+        }
+        if (!this.mActiveSpeakerDetection) {
+            return;
+        }
+
+        ActiveSpeakerDetector detector = state.speakers;
+        if (detector.onAudioLevel(streamId, level, SystemClock.elapsedRealtime())) {
+            sendActiveSpeaker(sessionId, detector.getSpeaker());
+        }
+    }
+
+    /** Called when a stream stops delivering audio levels, e.g. it was unsubscribed. */
+    public void onAudioLevelsStopped(String sessionId, String streamId) {
+        State<Session, RNOpenTokSignalCodec> state = this.mSessions.get(sessionId);
+        if (state != null && streamId != null && state.speakers.remove(streamId, SystemClock.elapsedRealtime())) {
+            sendActiveSpeaker(sessionId, null);
+        }
+    }
+
+    private void sendActiveSpeaker(String sessionId, String streamId) {
+        WritableMap payload = Arguments.createMap();
+        payload.putString("sessionId", sessionId);
+        payload.putString("streamId", streamId);
+        sendEvent(Events.ON_ACTIVE_SPEAKER_CHANGED, payload, sessionId);
+    }
+
+    public WritableMap getActiveSpeakerStats() {
+        WritableMap stats = Arguments.createMap();
+        for (State<Session, RNOpenTokSignalCodec> state : this.mSessions.getStates()) {
+            ActiveSpeakerDetector detector = state.speakers;
+            WritableMap session = Arguments.createMap();
+            session.putString("streamId", detector.getSpeaker());
+            session.putDouble("samples", detector.getSampleCount());
+            session.putDouble("changes", detector.getChangeCount());
+            stats.putMap(state.session.getSessionId(), session);
+        }
+        return stats;
+    }
+
+    public RNOpenTokSignalOutbox getSignalOutbox(String sessionId) {
+        State<Session, RNOpenTokSignalCodec> state = this.mSessions.get(sessionId);
+        return state != null ? state.outbox : null;
+    }
+
+    /** Applies to the outboxes of connected sessions and of sessions connected later. */
+    public void setSignalOptions(RNOpenTokSignalOutbox.Options options) {
+        this.mSignalOptions = options;
+        for (State<Session, RNOpenTokSignalCodec> state : this.mSessions.getStates()) {
+            state.outbox.setOptions(options);
+        }
+    }
+
+    public WritableMap getSignalStats() {
+        WritableMap stats = Arguments.createMap();
+        for (State<Session, RNOpenTokSignalCodec> state : this.mSessions.getStates()) {
+            RNOpenTokSignalOutbox outbox = state.outbox;
+            WritableMap session = Arguments.createMap();
+            session.putInt("queued", outbox.getQueueSize());
+            session.putDouble("sent", outbox.getSentCount());
+            session.putDouble("failed", outbox.getFailedCount());
+            session.putDouble("dropped", outbox.getDroppedCount());
+            session.putDouble("coalesced", outbox.getCoalescedCount());
+            RNOpenTokSignalCodec codec = state.codec;
+            codec.expire(SystemClock.uptimeMillis());
+            session.putDouble("framed", codec.getFramedCount());
+            session.putDouble("reassembled", codec.getReassembledCount());
+            session.putDouble("incomplete", codec.getIncompleteCount());
+            session.putDouble("malformed", codec.getMalformedCount());
+            session.putInt("reassembling", codec.getPendingCount());
+            stats.putMap(state.session.getSessionId(), session);
+        }
+        return stats;
+    }
+
+    private RNOpenTokSignalOutbox createSignalOutbox(final Session session, RNOpenTokSignalCodec codec) {
+        return new RNOpenTokSignalOutbox(
+                new RNOpenTokSignalOutbox.Sender() {
+                    @Override
+                    public void sendSignal(String type, String data) {
+                        session.sendSignal(type, data);
+                    }
+                },
+                codec,
+                new RNOpenTokSignalOutbox.Scheduler() {
+                    @Override
+                    public long now() {
+                        return SystemClock.uptimeMillis();
+                    }
+
+                    @Override
+                    public void schedule(Runnable task, long delayMs) {
+                        mHandler.postDelayed(task, delayMs);
+                    }
+                },
+                this.mSignalOptions);
+    }
+
+    /**
+     * Registers a subscriber view for the given streamId, or for any stream nobody else
+     * asked for when streamId is null. A matching stream that is already live is
+     * delivered right away, and is taken away from a view that showed it as any stream.
+     * A streamId another view already asked for is rejected.
+     */
+    public void setSubscriberListener (String sessionId, String streamId, RNOpenTokSubscriberView subscriber) {
+        if (sessionId == null) {
+            return;
+        }
+        RNOpenTokStreamRouter router = getRouter(sessionId);
+        RNOpenTokStreamRouter.Binding binding;
+        try {
+            binding = router.addView(streamId, subscriber);
+        } catch (IllegalStateException e) {
+            subscriber.onStreamRejected(streamId, e.getMessage());
+            return;
+        }
+        Session session = getSession(sessionId);
+        if (binding != null && binding.displaced != null && session != null) {
+            binding.displaced.onStreamReleased(session, binding.stream);
+        }
+        deliverStream(sessionId, binding);
+        if (binding != null && binding.displaced != null) {
+            while ((binding = router.assignWaiting()) != null) {
+                deliverStream(sessionId, binding);
+            }
+        }
+    }
+
+    public void removeSubscriberListener (String sessionId, String streamId, RNOpenTokSubscriberView subscriber, String boundStreamId) {
+        if (sessionId == null) {
+            return;
+        }
+        RNOpenTokStreamRouter router = this.mRouters.get(sessionId);
+        if (router != null) {
+            deliverStream(sessionId, router.removeView(streamId, subscriber, boundStreamId));
+        }
+    }
+
+    private RNOpenTokStreamRouter getRouter(String sessionId) {
+        RNOpenTokStreamRouter router = this.mRouters.get(sessionId);
+        if (router == null) {
+            RNOpenTokStreamRouter created = new RNOpenTokStreamRouter();
+            router = this.mRouters.putIfAbsent(sessionId, created);
+            if (router == null) {
+                router = created;
+            }
+        }
+        return router;
+    }
+
+    private void deliverStream(String sessionId, RNOpenTokStreamRouter.Binding binding) {
+        Session session = getSession(sessionId);
+        if (binding != null && session != null) {
+            binding.view.onStreamReceived(session, binding.stream);
+        }
+    }
+
+    /**
+     * Views are torn down on the UI thread since this runs on the bridge and SDK threads.
+     * A view that subscribed again in the meantime is left alone.
+     */
+    private void clearStreams(final Session session) {
+        RNOpenTokStreamRouter router = this.mRouters.get(session.getSessionId());
+        if (router == null) {
+            return;
+        }
+        final List<RNOpenTokSubscriberView> views = router.clearStreams();
+        if (views.isEmpty()) {
+            return;
+        }
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                for (RNOpenTokSubscriberView view : views) {
+                    view.onSessionDisconnected(session);
+                }
+            }
+        });
     }
 
     public void setPublisherListener (String sessionId, RNOpenTokPublisherView publisher) {
-        this.mPublishers.put(sessionId, publisher);
+        this.mPublishers.register(sessionId, publisher);
     }
 
-    public void removePublisherListener (String sessionId) {
-        this.mPublishers.remove(sessionId);
+    public void removePublisherListener (String sessionId, RNOpenTokPublisherView publisher) {
+        this.mPublishers.unregister(sessionId, publisher);
+    }
+
+    public RNOpenTokPublisherView getPublisherListener (String sessionId) {
+        return this.mPublishers.get(sessionId);
+    }
+
+    /** Callbacks from a session that was disconnected or replaced must not reach views. */
+    private boolean isCurrent(Session session) {
+        return this.mSessions.isCurrent(session.getSessionId(), session);
     }
 
     @Override
     public void onConnected(Session session) {
         RNOpenTokPublisherView publisherView = this.mPublishers.get(session.getSessionId());
-        if( publisherView != null) {
+        if( publisherView != null && isCurrent(session)) {
             publisherView.onConnected(session);
         }
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
 
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_DID_CONNECT.toString(), payload);
+        sendEvent(Events.ON_SESSION_DID_CONNECT, payload);
     }
 
     @Override
     public void onDisconnected(Session session) {
+        if (isCurrent(session)) {
+            clearStreams(session);
+        }
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
 
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_DID_DISCONNECT.toString(), payload);
+        sendEvent(Events.ON_SESSION_DID_DISCONNECT, payload);
     }
 
     @Override
     public void onStreamReceived(Session session, Stream stream) {
-        RNOpenTokSubscriberView subscriberView = this.mSubscribers.get(session.getSessionId());
-        if( subscriberView != null) {
-            subscriberView.onStreamReceived(session, stream);
+        if (isCurrent(session)) {
+            deliverStream(session.getSessionId(), getRouter(session.getSessionId()).addStream(stream));
         }
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
         payload.putString("streamId", stream.getStreamId());
 
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_STREAM_CREATED.toString(), payload);
+        sendEvent(Events.ON_SESSION_STREAM_CREATED, payload);
     }
 
     @Override
     public void onStreamDropped(Session session, Stream stream) {
-        RNOpenTokSubscriberView subscriberView = this.mSubscribers.get(session.getSessionId());
-        if( subscriberView != null) {
-            subscriberView.onStreamDropped(session, stream);
+        RNOpenTokStreamRouter router = this.mRouters.get(session.getSessionId());
+        if (router != null && isCurrent(session)) {
+            for (RNOpenTokSubscriberView subscriberView : router.removeStream(stream)) {
+                subscriberView.onStreamDropped(session, stream);
+            }
+            RNOpenTokStreamRouter.Binding binding;
+            while ((binding = router.assignWaiting()) != null) {
+                deliverStream(session.getSessionId(), binding);
+            }
         }
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
         payload.putString("streamId", stream.getStreamId());
 
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_STREAM_DESTROYED.toString(), payload);
+        sendEvent(Events.ON_SESSION_STREAM_DESTROYED, payload);
     }
 
     @Override
@@ -166,39 +606,44 @@ public class RNOpenTokSessionManager implements Session.ConnectionListener, Sess
         payload.putString("sessionId", session.getSessionId());
         payload.putString("error", opentokError.getMessage());
 
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_DID_FAIL_WITH_ERROR.toString(), payload);
+        sendEvent(Events.ON_SESSION_DID_FAIL_WITH_ERROR, payload);
     }
 
     @Override
     public void onSignalReceived(Session session, String type, String data, Connection connection) {
+        if (RNOpenTokSignalCodec.isFrame(data)) {
+            State<Session, RNOpenTokSignalCodec> state = this.mSessions.get(session.getSessionId());
+            if (state == null || state.session != session) {
+                return;
+            }
+            RNOpenTokSignalCodec codec = state.codec;
+            String source = (connection != null ? connection.getConnectionId() : "") + "|" + type;
+            data = codec.receive(source, data, SystemClock.uptimeMillis());
+            if (data == null) {
+                return;
+            }
+        }
+
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
         payload.putString("type", type);
         payload.putString("data", data);
 
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.EVENT_ON_SIGNAL_RECEIVED.toString(), payload);
+        sendEvent(Events.EVENT_ON_SIGNAL_RECEIVED, payload);
     }
 
     @Override
     public void onReconnected(Session session) {
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_DID_BEGIN_RECONNECTING.toString(), payload);
+        sendEvent(Events.ON_SESSION_DID_BEGIN_RECONNECTING, payload, session.getSessionId());
     }
 
     @Override
     public void onReconnecting(Session session) {
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_DID_RECONNECTING.toString(), payload);
+        sendEvent(Events.ON_SESSION_DID_RECONNECTING, payload, session.getSessionId());
     }
 
     @Override
@@ -207,9 +652,7 @@ public class RNOpenTokSessionManager implements Session.ConnectionListener, Sess
         payload.putString("sessionId", session.getSessionId());
         payload.putString("id", id);
         payload.putString("name", name);
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_ARCHIVE_STARTED_WITH_ID.toString(), payload);
+        sendEvent(Events.ON_ARCHIVE_STARTED_WITH_ID, payload);
     }
 
     @Override
@@ -217,9 +660,7 @@ public class RNOpenTokSessionManager implements Session.ConnectionListener, Sess
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
         payload.putString("id", id);
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_ARCHIVE_STOPPED_WITH_ID.toString(), payload);
+        sendEvent(Events.ON_ARCHIVE_STOPPED_WITH_ID, payload);
     }
 
     @Override
@@ -227,9 +668,7 @@ public class RNOpenTokSessionManager implements Session.ConnectionListener, Sess
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
         payload.putString("connectionId", connection.getConnectionId());
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_CONNECTION_CREATED.toString(), payload);
+        sendEvent(Events.ON_SESSION_CONNECTION_CREATED, payload);
     }
 
     @Override
@@ -237,8 +676,15 @@ public class RNOpenTokSessionManager implements Session.ConnectionListener, Sess
         WritableMap payload = Arguments.createMap();
         payload.putString("sessionId", session.getSessionId());
         payload.putString("connectionId", connection.getConnectionId());
-        mContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(Events.ON_SESSION_CONNECTION_DESTROYED.toString(), payload);
+        sendEvent(Events.ON_SESSION_CONNECTION_DESTROYED, payload);
+    }
+
+    private void sendEvent(Events event, WritableMap payload) {
+        RNOpenTokEventDispatcher.getEventDispatcher().dispatch(event, payload);
+    }
+
+    /** Queued events with the same name and key replace each other, see {@link RNOpenTokEventDispatcher}. */
+    private void sendEvent(Events event, WritableMap payload, String coalescingKey) {
+        RNOpenTokEventDispatcher.getEventDispatcher().dispatch(event, payload, event + ":" + coalescingKey);
     }
 }
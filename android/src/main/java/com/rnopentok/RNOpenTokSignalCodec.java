@@ -0,0 +1,273 @@
+package com.rnopentok;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Framing for signal payloads that are large or over the signal size limit. Such a
+ * payload is deflated, base64 encoded and split into frames of the form
+ * {@code ~otc1|<messageId>|<index>|<count>|<chunk>}. Small payloads are sent as they
+ * are, so peers without this codec keep working for ordinary signals.
+ *
+ * Incoming frames are reassembled per sender and type. A message may have at most
+ * {@link #MAX_FRAMES} frames; {@link #encode} rejects larger payloads, so whatever is
+ * sent can be received. An incomplete message is dropped once the sender had time
+ * to send all of its frames at the lowest rate an outbox may use, see
+ * {@link #getTimeout}. The number and size of messages being reassembled is bounded;
+ * the oldest one is dropped to make room.
+ */
+class RNOpenTokSignalCodec implements RNOpenTokSignalOutbox.Encoder {
+    static final String PREFIX = "~otc1|";
+    static final int MAX_SIGNAL_SIZE = 8192;
+    static final int CHUNK_SIZE = MAX_SIGNAL_SIZE - 64;
+    static final long TIMEOUT = 10000;
+
+    private static final int MAX_PENDING_MESSAGES = 32;
+    private static final int MAX_PENDING_CHARS = 1 << 20;
+    static final int MAX_FRAMES = MAX_PENDING_CHARS / CHUNK_SIZE;
+    private static final int MAX_MESSAGE_BYTES = 4 << 20;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final class Pending {
+        final String[] chunks;
+        final long deadline;
+        int received = 0;
+        int chars = 0;
+
+        Pending(int count, long startedAt) {
+            this.chunks = new String[count];
+            this.deadline = startedAt + getTimeout(count);
+        }
+    }
+
+    private final AtomicLong mNextMessageId = new AtomicLong(new Random().nextInt() & 0xffffff);
+    private final LinkedHashMap<String, Pending> mPending = new LinkedHashMap<>();
+    private int mPendingChars = 0;
+
+    private final AtomicLong mFramed = new AtomicLong();
+    private long mReassembled = 0;
+    private long mIncomplete = 0;
+    private long mMalformed = 0;
+
+    /**
+     * @param compressThreshold payloads longer than this are framed, or -1 to only frame
+     *                          payloads over the signal size limit.
+     * @throws IllegalArgumentException when the payload needs more than {@link #MAX_FRAMES} frames.
+     */
+    @Override
+    public List<String> encode(String data, int compressThreshold) {
+        if (data == null) {
+            return Collections.singletonList(null);
+        }
+        boolean overThreshold = compressThreshold >= 0 && data.length() > compressThreshold;
+        if (!overThreshold && !data.startsWith(PREFIX) && data.length() * 3 <= MAX_SIGNAL_SIZE) {
+            return Collections.singletonList(data);
+        }
+
+        byte[] bytes = data.getBytes(UTF_8);
+        if (!overThreshold && !data.startsWith(PREFIX) && bytes.length <= MAX_SIGNAL_SIZE) {
+            return Collections.singletonList(data);
+        }
+
+        String encoded = Base64.encodeToString(deflate(bytes), Base64.NO_WRAP);
+        String messageId = Long.toString(mNextMessageId.getAndIncrement(), 36);
+        int count = (encoded.length() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (count > MAX_FRAMES) {
+            throw new IllegalArgumentException("Signal payload needs " + count + " signals, at most " + MAX_FRAMES + " are received");
+        }
+
+        List<String> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int start = i * CHUNK_SIZE;
+            String chunk = encoded.substring(start, Math.min(encoded.length(), start + CHUNK_SIZE));
+            frames.add(PREFIX + messageId + "|" + i + "|" + count + "|" + chunk);
+        }
+        mFramed.incrementAndGet();
+        return frames;
+    }
+
+    static boolean isFrame(String data) {
+        return data != null && data.startsWith(PREFIX);
+    }
+
+    /**
+     * Takes one frame sent by {@code source}. Returns the payload once its last frame
+     * arrived, or null while it is incomplete or when it could not be decoded.
+     */
+    synchronized String receive(String source, String frame, long now) {
+        expire(now);
+
+        String[] header = frame.split("\\|", 5);
+        int index;
+        int count;
+        try {
+            index = Integer.parseInt(header[2]);
+            count = Integer.parseInt(header[3]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            mMalformed++;
+            return null;
+        }
+        if (header.length < 5 || count < 1 || index < 0 || index >= count || count > MAX_FRAMES) {
+            mMalformed++;
+            return null;
+        }
+        if (count == 1) {
+            return decode(header[4]);
+        }
+
+        String key = source + "|" + header[1];
+        Pending pending = mPending.get(key);
+        if (pending == null) {
+            pending = new Pending(count, now);
+            mPending.put(key, pending);
+        } else if (pending.chunks.length != count) {
+            mMalformed++;
+            return null;
+        }
+
+        String chunk = header[4];
+        if (pending.chunks[index] == null) {
+            pending.chunks[index] = chunk;
+            pending.received++;
+            pending.chars += chunk.length();
+            mPendingChars += chunk.length();
+        }
+
+        if (pending.received < count) {
+            evict(key);
+            return null;
+        }
+
+        mPending.remove(key);
+        mPendingChars -= pending.chars;
+        StringBuilder encoded = new StringBuilder(pending.chars);
+        for (String part : pending.chunks) {
+            encoded.append(part);
+        }
+        return decode(encoded.toString());
+    }
+
+    /**
+     * Time to receive a message of {@code count} frames: frames of a message are sent back
+     * to back, so this is the time to send them at the lowest outbox rate, plus
+     * {@link #TIMEOUT} for delivery.
+     */
+    static long getTimeout(int count) {
+        return TIMEOUT + (long) Math.ceil(count * 1000 / RNOpenTokSignalOutbox.MIN_RATE_PER_SECOND);
+    }
+
+    /** Drops messages that did not complete within their timeout. */
+    synchronized void expire(long now) {
+        Iterator<Pending> iterator = mPending.values().iterator();
+        while (iterator.hasNext()) {
+            Pending pending = iterator.next();
+            if (now < pending.deadline) {
+                continue;
+            }
+            iterator.remove();
+            mPendingChars -= pending.chars;
+            mIncomplete++;
+        }
+    }
+
+    synchronized void clear() {
+        mIncomplete += mPending.size();
+        mPending.clear();
+        mPendingChars = 0;
+    }
+
+    private void evict(String keep) {
+        Iterator<Map.Entry<String, Pending>> iterator = mPending.entrySet().iterator();
+        while ((mPending.size() > MAX_PENDING_MESSAGES || mPendingChars > MAX_PENDING_CHARS) && iterator.hasNext()) {
+            Map.Entry<String, Pending> entry = iterator.next();
+            if (entry.getKey().equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            mPendingChars -= entry.getValue().chars;
+            mIncomplete++;
+        }
+    }
+
+    private String decode(String encoded) {
+        try {
+            String data = new String(inflate(Base64.decode(encoded, Base64.NO_WRAP)), UTF_8);
+            mReassembled++;
+            return data;
+        } catch (IllegalArgumentException | DataFormatException e) {
+            mMalformed++;
+            return null;
+        }
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, input.length / 4));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] input) throws DataFormatException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(input);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(input.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("Truncated signal payload");
+                }
+                output.write(buffer, 0, inflated);
+                if (output.size() > MAX_MESSAGE_BYTES) {
+                    throw new DataFormatException("Signal payload over " + MAX_MESSAGE_BYTES + " bytes");
+                }
+            }
+            return output.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    long getFramedCount() {
+        return mFramed.get();
+    }
+
+    synchronized long getReassembledCount() {
+        return mReassembled;
+    }
+
+    synchronized long getIncompleteCount() {
+        return mIncomplete;
+    }
+
+    synchronized long getMalformedCount() {
+        return mMalformed;
+    }
+
+    synchronized int getPendingCount() {
+        return mPending.size();
+    }
+}
@@ -0,0 +1,332 @@
+package com.rnopentok;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Outgoing signal queue of one session. Signals are sent through a token bucket so
+ * bursts stay under the service rate limit; the queue is bounded and overflows
+ * according to the drop policy. For types registered as coalescing only the latest
+ * queued value is kept, which suits cursor or presence updates.
+ *
+ * Every signal settles its {@link Callback} exactly once: sent once the session
+ * accepted it, failed when it was dropped, superseded, or the session went away.
+ * An {@link Encoder} may split a signal into several frames; each frame costs one
+ * token and the frames of a signal are sent back to back in queue order.
+ *
+ * The outbox only talks to the session through {@link Sender} and to time through
+ * {@link Scheduler}, so it can be driven by fakes.
+ */
+class RNOpenTokSignalOutbox {
+    static final String E_SIGNAL_FAILED = "E_SIGNAL_FAILED";
+    static final String E_SIGNAL_DROPPED = "E_SIGNAL_DROPPED";
+    static final String E_SIGNAL_SUPERSEDED = "E_SIGNAL_SUPERSEDED";
+    static final String E_SESSION_CLOSED = "E_SESSION_CLOSED";
+    static final String E_SIGNAL_TOO_LARGE = "E_SIGNAL_TOO_LARGE";
+
+    /** Receivers time out incomplete messages assuming no outbox sends slower than this. */
+    static final double MIN_RATE_PER_SECOND = 1;
+
+    enum DropPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+    }
+
+    interface Sender {
+        void sendSignal(String type, String data) throws Exception;
+    }
+
+    interface Encoder {
+        /** Throws {@link IllegalArgumentException} for payloads too large to be received. */
+        List<String> encode(String data, int compressThreshold);
+    }
+
+    interface Scheduler {
+        long now();
+
+        void schedule(Runnable task, long delayMs);
+    }
+
+    interface Callback {
+        void onSent();
+
+        void onFailed(String code, String message);
+    }
+
+    static final class Options {
+        double ratePerSecond = 10;
+        int burst = 20;
+        int maxQueue = 200;
+        DropPolicy dropPolicy = DropPolicy.DROP_OLDEST;
+        Set<String> coalesceTypes = new HashSet<>();
+        int compressThreshold = -1;
+    }
+
+    private static final class Signal {
+        final String type;
+        List<String> frames;
+        Callback callback;
+        int nextFrame = 0;
+        volatile boolean failed = false;
+
+        Signal(String type, List<String> frames, Callback callback) {
+            this.type = type;
+            this.frames = frames;
+            this.callback = callback;
+        }
+
+        boolean isSending() {
+            return nextFrame > 0;
+        }
+    }
+
+    private static final class Frame {
+        final Signal signal;
+        final String data;
+        final boolean last;
+
+        Frame(Signal signal, String data, boolean last) {
+            this.signal = signal;
+            this.data = data;
+            this.last = last;
+        }
+    }
+
+    private final Sender mSender;
+    private final Encoder mEncoder;
+    private final Scheduler mScheduler;
+    private final Object mSendLock = new Object();
+    private Options mOptions;
+
+    private final ArrayDeque<Signal> mQueue = new ArrayDeque<>();
+    private final HashMap<String, Signal> mLatestByType = new HashMap<>();
+    private double mTokens;
+    private long mLastRefill;
+    private boolean mDrainScheduled = false;
+    private boolean mClosed = false;
+
+    private long mSent = 0;
+    private long mFailed = 0;
+    private long mDropped = 0;
+    private long mCoalesced = 0;
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RNOpenTokSignalOutbox.this) {
+                mDrainScheduled = false;
+            }
+            drain();
+        }
+    };
+
+    RNOpenTokSignalOutbox(Sender sender, Encoder encoder, Scheduler scheduler, Options options) {
+        mSender = sender;
+        mEncoder = encoder;
+        mScheduler = scheduler;
+        mOptions = options;
+        mTokens = options.burst;
+        mLastRefill = scheduler.now();
+    }
+
+    synchronized void setOptions(Options options) {
+        mOptions = options;
+        mTokens = Math.min(mTokens, options.burst);
+    }
+
+    void send(String type, String data, Callback callback) {
+        List<Signal> failed = new ArrayList<>(1);
+        String failure = null;
+        List<String> frames;
+        int compressThreshold;
+        synchronized (this) {
+            compressThreshold = mOptions.compressThreshold;
+        }
+        try {
+            frames = mEncoder.encode(data, compressThreshold);
+        } catch (IllegalArgumentException e) {
+            callback.onFailed(E_SIGNAL_TOO_LARGE, e.getMessage() != null ? e.getMessage() : failureMessage(E_SIGNAL_TOO_LARGE, type));
+            return;
+        } catch (RuntimeException e) {
+            callback.onFailed(E_SIGNAL_FAILED, e.getMessage() != null ? e.getMessage() : failureMessage(E_SIGNAL_FAILED, type));
+            return;
+        }
+
+        synchronized (this) {
+            if (mClosed) {
+                failure = E_SESSION_CLOSED;
+                failed.add(new Signal(type, frames, callback));
+            } else if (mOptions.coalesceTypes.contains(type) && mLatestByType.containsKey(type)) {
+                Signal queued = mLatestByType.get(type);
+                failed.add(new Signal(queued.type, queued.frames, queued.callback));
+                failure = E_SIGNAL_SUPERSEDED;
+                queued.frames = frames;
+                queued.callback = callback;
+                mCoalesced++;
+            } else {
+                Signal signal = new Signal(type, frames, callback);
+                if (mQueue.size() >= mOptions.maxQueue) {
+                    Signal dropped = mOptions.dropPolicy == DropPolicy.DROP_OLDEST ? pollOldestWaiting() : null;
+                    if (dropped == null) {
+                        dropped = signal;
+                        signal = null;
+                    }
+                    failure = E_SIGNAL_DROPPED;
+                    failed.add(dropped);
+                    mDropped++;
+                }
+                if (signal != null) {
+                    mQueue.addLast(signal);
+                    if (mOptions.coalesceTypes.contains(type)) {
+                        mLatestByType.put(type, signal);
+                    }
+                }
+            }
+        }
+
+        for (Signal signal : failed) {
+            signal.callback.onFailed(failure, failureMessage(failure, signal.type));
+        }
+        drain();
+    }
+
+    /** Fails everything still queued; later sends fail right away. */
+    void close() {
+        List<Signal> pending;
+        synchronized (this) {
+            mClosed = true;
+            pending = new ArrayList<>(mQueue);
+            for (Signal signal : pending) {
+                signal.failed = true;
+            }
+            mQueue.clear();
+            mLatestByType.clear();
+        }
+        for (Signal signal : pending) {
+            signal.callback.onFailed(E_SESSION_CLOSED, failureMessage(E_SESSION_CLOSED, signal.type));
+        }
+    }
+
+    /** Sends under its own lock so concurrent drains keep the queue order. */
+    private void drain() {
+        synchronized (mSendLock) {
+            drainLocked();
+        }
+    }
+
+    private void drainLocked() {
+        List<Frame> ready = new ArrayList<>();
+        synchronized (this) {
+            refill();
+            while (mTokens >= 1 && !mQueue.isEmpty()) {
+                Signal signal = mQueue.peekFirst();
+                forget(signal);
+                boolean last = signal.nextFrame == signal.frames.size() - 1;
+                ready.add(new Frame(signal, signal.frames.get(signal.nextFrame++), last));
+                if (last) {
+                    mQueue.pollFirst();
+                }
+                mTokens -= 1;
+            }
+            if (!mQueue.isEmpty() && !mDrainScheduled) {
+                mDrainScheduled = true;
+                long wait = (long) Math.ceil((1 - mTokens) * 1000 / mOptions.ratePerSecond);
+                mScheduler.schedule(mDrainTask, Math.max(1, wait));
+            }
+        }
+
+        for (Frame frame : ready) {
+            Signal signal = frame.signal;
+            if (signal.failed) {
+                continue;
+            }
+
+            Exception error = null;
+            try {
+                mSender.sendSignal(signal.type, frame.data);
+            } catch (Exception e) {
+                error = e;
+            }
+
+            if (error != null) {
+                boolean settle;
+                synchronized (this) {
+                    settle = !signal.failed;
+                    signal.failed = true;
+                    mQueue.remove(signal);
+                    mFailed++;
+                }
+                if (settle) {
+                    String message = error.getMessage();
+                    signal.callback.onFailed(E_SIGNAL_FAILED, message != null ? message : failureMessage(E_SIGNAL_FAILED, signal.type));
+                }
+            } else if (frame.last) {
+                synchronized (this) {
+                    mSent++;
+                }
+                signal.callback.onSent();
+            }
+        }
+    }
+
+    /** Removes the oldest signal that did not start sending, or returns null. */
+    private Signal pollOldestWaiting() {
+        Signal head = mQueue.pollFirst();
+        if (head == null || !head.isSending()) {
+            forget(head);
+            return head;
+        }
+        Signal next = mQueue.pollFirst();
+        mQueue.addFirst(head);
+        if (next != null) {
+            forget(next);
+        }
+        return next;
+    }
+
+    private void refill() {
+        long now = mScheduler.now();
+        mTokens = Math.min(mOptions.burst, mTokens + (now - mLastRefill) * mOptions.ratePerSecond / 1000);
+        mLastRefill = now;
+    }
+
+    private void forget(Signal signal) {
+        if (signal != null && mLatestByType.get(signal.type) == signal) {
+            mLatestByType.remove(signal.type);
+        }
+    }
+
+    private static String failureMessage(String code, String type) {
+        switch (code) {
+            case E_SIGNAL_DROPPED: return "Signal of type " + type + " dropped, the outbox is full";
+            case E_SIGNAL_SUPERSEDED: return "Signal of type " + type + " replaced by a newer one";
+            case E_SESSION_CLOSED: return "Session closed before signal of type " + type + " was sent";
+            case E_SIGNAL_TOO_LARGE: return "Signal of type " + type + " is too large to be received";
+            default: return "Sending signal of type " + type + " failed";
+        }
+    }
+
+    synchronized int getQueueSize() {
+        return mQueue.size();
+    }
+
+    synchronized long getSentCount() {
+        return mSent;
+    }
+
+    synchronized long getFailedCount() {
+        return mFailed;
+    }
+
+    synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+}
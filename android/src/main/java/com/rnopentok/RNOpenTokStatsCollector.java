@@ -0,0 +1,130 @@
+package com.rnopentok;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Samples the media stats of one publisher or subscriber into rolling windows and
+ * reports their aggregates every interval. Individual SDK callbacks never reach JS,
+ * only the mean, p95 and loss rate of the last {@link #WINDOW_SAMPLES} reports.
+ */
+class RNOpenTokStatsCollector {
+    static final int WINDOW_SAMPLES = 30;
+
+    interface Listener {
+        void onStats(WritableMap stats);
+    }
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final int mInterval;
+    private final Listener mListener;
+    @Nullable private final RNOpenTokFirstFrameRenderer mRenderer;
+
+    private final MediaStatsWindow mVideo = new MediaStatsWindow(WINDOW_SAMPLES);
+    private final MediaStatsWindow mAudio = new MediaStatsWindow(WINDOW_SAMPLES);
+    private final StatsRing mFrameRate = new StatsRing(WINDOW_SAMPLES);
+    private int mVideoSources = 0;
+    private int mAudioSources = 0;
+
+    private boolean mRunning = false;
+    private long mLastFrameCount = -1;
+    private long mLastReport;
+
+    /**
+     * @param renderer renderer whose frames are counted for the frame rate, or null
+     */
+    RNOpenTokStatsCollector(int interval, @Nullable RNOpenTokFirstFrameRenderer renderer, Listener listener) {
+        mInterval = interval;
+        mRenderer = renderer;
+        mListener = listener;
+    }
+
+    void start() {
+        if (!mRunning) {
+            mRunning = true;
+            mLastFrameCount = -1;
+            mHandler.postDelayed(mReportRunnable, mInterval);
+        }
+    }
+
+    void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mReportRunnable);
+    }
+
+    /** Forgets the samples, e.g. when another stream is shown. */
+    synchronized void clear() {
+        mVideo.clear();
+        mAudio.clear();
+        mFrameRate.clear();
+        mLastFrameCount = -1;
+    }
+
+    /**
+     * Counters summed over {@code sources} entries; a change in the number of entries
+     * starts a new baseline so the sums stay comparable.
+     */
+    synchronized void onVideoStats(long packets, long lost, long bytes, double timestampMs, int sources) {
+        if (sources != mVideoSources) {
+            mVideoSources = sources;
+            mVideo.resetBaseline();
+        }
+        mVideo.onSample(packets, lost, bytes, timestampMs);
+    }
+
+    synchronized void onAudioStats(long packets, long lost, long bytes, double timestampMs, int sources) {
+        if (sources != mAudioSources) {
+            mAudioSources = sources;
+            mAudio.resetBaseline();
+        }
+        mAudio.onSample(packets, lost, bytes, timestampMs);
+    }
+
+    private final Runnable mReportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            mListener.onStats(report(SystemClock.elapsedRealtime()));
+            mHandler.postDelayed(this, mInterval);
+        }
+    };
+
+    private synchronized WritableMap report(long now) {
+        if (mRenderer != null) {
+            long frames = mRenderer.getFrameCount();
+            if (mLastFrameCount != -1 && now > mLastReport) {
+                mFrameRate.add((frames - mLastFrameCount) * 1000.0 / (now - mLastReport));
+            }
+            mLastFrameCount = frames;
+            mLastReport = now;
+        }
+
+        WritableMap video = window(mVideo);
+        if (mRenderer != null) {
+            video.putDouble("frameRate", mFrameRate.mean());
+            video.putDouble("frameRateP5", mFrameRate.percentile(0.05));
+        }
+
+        WritableMap stats = Arguments.createMap();
+        stats.putMap("video", video);
+        stats.putMap("audio", window(mAudio));
+        return stats;
+    }
+
+    private static WritableMap window(MediaStatsWindow window) {
+        WritableMap map = Arguments.createMap();
+        map.putInt("samples", window.getSampleCount());
+        map.putDouble("bitrateKbps", window.getBitrateMean());
+        map.putDouble("bitrateKbpsP95", window.getBitrateP95());
+        map.putDouble("lossRate", window.getLossRate());
+        map.putDouble("lossRateP95", window.getLossRateP95());
+        return map;
+    }
+}
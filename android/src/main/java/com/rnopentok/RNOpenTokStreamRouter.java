@@ -0,0 +1,210 @@
+package com.rnopentok;
+
+import com.opentok.android.Stream;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes the streams of one session to subscriber views. A view either asks for a
+ * specific streamId or takes the next stream nobody asked for. Streams that arrive
+ * before a view wants them stay pending until one claims them. A stream goes to at most
+ * one view: a view asking for it takes it over from a view that took it as any stream,
+ * and a second view asking for the same streamId is rejected.
+ *
+ * Lookups by streamId are O(1) and do not lock. Adding streams and views is O(1) too;
+ * removing a waiting view and clearing the streams are linear in the number of views
+ * and streams. Changes to the routing are serialized, and the caller notifies the views
+ * once the routing has been updated.
+ */
+class RNOpenTokStreamRouter {
+    static final class Binding {
+        final RNOpenTokSubscriberView view;
+        final Stream stream;
+        /** View that took the stream as any stream and has to let go of it first. */
+        final RNOpenTokSubscriberView displaced;
+
+        Binding(RNOpenTokSubscriberView view, Stream stream) {
+            this(view, stream, null);
+        }
+
+        Binding(RNOpenTokSubscriberView view, Stream stream, RNOpenTokSubscriberView displaced) {
+            this.view = view;
+            this.stream = stream;
+            this.displaced = displaced;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Stream> mStreams = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, RNOpenTokSubscriberView> mRequested = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, RNOpenTokSubscriberView> mAssigned = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Stream> mPending = new LinkedHashMap<>();
+    private final ArrayDeque<RNOpenTokSubscriberView> mWaiting = new ArrayDeque<>();
+
+    RNOpenTokSubscriberView getView(String streamId) {
+        RNOpenTokSubscriberView view = mRequested.get(streamId);
+        return view != null ? view : mAssigned.get(streamId);
+    }
+
+    Stream getStream(String streamId) {
+        return mStreams.get(streamId);
+    }
+
+    int getStreamCount() {
+        return mStreams.size();
+    }
+
+    /** Every registered view, whether it shows a stream or waits for one. */
+    synchronized List<RNOpenTokSubscriberView> getViews() {
+        LinkedHashSet<RNOpenTokSubscriberView> views = new LinkedHashSet<>(mRequested.values());
+        views.addAll(mAssigned.values());
+        views.addAll(mWaiting);
+        return new ArrayList<>(views);
+    }
+
+    /**
+     * Adds a view, with a null streamId for views taking any stream. Returns the stream
+     * it should subscribe to right away, or null when it has to wait for one. A view that
+     * held the stream as any stream goes back to waiting; call {@link #assignWaiting()}
+     * once it let go of the stream.
+     *
+     * @throws IllegalStateException when another view already asked for the streamId
+     */
+    synchronized Binding addView(String streamId, RNOpenTokSubscriberView view) {
+        if (streamId != null) {
+            RNOpenTokSubscriberView requested = mRequested.putIfAbsent(streamId, view);
+            if (requested != null && requested != view) {
+                throw new IllegalStateException("Stream " + streamId + " is already shown by another subscriber");
+            }
+            mPending.remove(streamId);
+            Stream stream = mStreams.get(streamId);
+            if (stream == null) {
+                return null;
+            }
+            RNOpenTokSubscriberView displaced = mAssigned.remove(streamId);
+            if (displaced != null) {
+                mWaiting.addFirst(displaced);
+            }
+            return new Binding(view, stream, displaced);
+        }
+
+        Binding binding = takePending(view);
+        if (binding == null) {
+            mWaiting.addLast(view);
+        }
+        return binding;
+    }
+
+    /**
+     * Removes a view. A stream it was holding is offered to the waiting views; the
+     * returned binding has to be delivered by the caller.
+     */
+    synchronized Binding removeView(String streamId, RNOpenTokSubscriberView view, String boundStreamId) {
+        mWaiting.remove(view);
+
+        String releasedStreamId = null;
+        if (streamId != null) {
+            if (mRequested.remove(streamId, view) && !mAssigned.containsKey(streamId)) {
+                releasedStreamId = streamId;
+            }
+        } else if (boundStreamId != null && mAssigned.remove(boundStreamId, view)) {
+            releasedStreamId = boundStreamId;
+        }
+
+        Stream stream = releasedStreamId != null ? mStreams.get(releasedStreamId) : null;
+        return stream != null ? offer(stream) : null;
+    }
+
+    /** Returns the view the new stream goes to, or null when it stays pending. */
+    synchronized Binding addStream(Stream stream) {
+        mStreams.put(stream.getStreamId(), stream);
+        return offer(stream);
+    }
+
+    /**
+     * Returns the views that were showing the stream. Views that took it as "any
+     * stream" go back to waiting; call {@link #assignWaiting()} afterwards.
+     */
+    synchronized List<RNOpenTokSubscriberView> removeStream(Stream stream) {
+        String streamId = stream.getStreamId();
+        mStreams.remove(streamId);
+        mPending.remove(streamId);
+
+        List<RNOpenTokSubscriberView> views = new ArrayList<>(2);
+        RNOpenTokSubscriberView requested = mRequested.get(streamId);
+        if (requested != null) {
+            views.add(requested);
+        }
+        RNOpenTokSubscriberView assigned = mAssigned.remove(streamId);
+        if (assigned != null) {
+            views.add(assigned);
+            mWaiting.addFirst(assigned);
+        }
+        return views;
+    }
+
+    /** Hands the oldest pending stream to the first waiting view, if both exist. */
+    synchronized Binding assignWaiting() {
+        RNOpenTokSubscriberView view = mWaiting.peekFirst();
+        if (view == null) {
+            return null;
+        }
+        Binding binding = takePending(view);
+        if (binding != null) {
+            mWaiting.pollFirst();
+        }
+        return binding;
+    }
+
+    /**
+     * Forgets every stream, e.g. after the session disconnected. Views stay registered
+     * and get the streams of the next connection. Returns the views that lost a stream.
+     */
+    synchronized List<RNOpenTokSubscriberView> clearStreams() {
+        List<RNOpenTokSubscriberView> views = new ArrayList<>();
+        for (String streamId : mStreams.keySet()) {
+            RNOpenTokSubscriberView requested = mRequested.get(streamId);
+            if (requested != null) {
+                views.add(requested);
+            }
+        }
+        for (RNOpenTokSubscriberView assigned : mAssigned.values()) {
+            views.add(assigned);
+            mWaiting.addLast(assigned);
+        }
+        mAssigned.clear();
+        mStreams.clear();
+        mPending.clear();
+        return views;
+    }
+
+    private Binding offer(Stream stream) {
+        String streamId = stream.getStreamId();
+        RNOpenTokSubscriberView view = mRequested.get(streamId);
+        if (view == null) {
+            view = mWaiting.pollFirst();
+            if (view == null) {
+                mPending.put(streamId, stream);
+                return null;
+            }
+            mAssigned.put(streamId, view);
+        }
+        return new Binding(view, stream);
+    }
+
+    private Binding takePending(RNOpenTokSubscriberView view) {
+        Iterator<Stream> pending = mPending.values().iterator();
+        if (!pending.hasNext()) {
+            return null;
+        }
+        Stream stream = pending.next();
+        pending.remove();
+        mAssigned.put(stream.getStreamId(), view);
+        return new Binding(view, stream);
+    }
+}
@@ -1,5 +1,11 @@
 package com.rnopentok;
 
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.SystemClock;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.uimanager.ThemedReactContext;
@@ -8,11 +14,44 @@ import com.opentok.android.Session;
 import com.opentok.android.Stream;
 import com.opentok.android.Subscriber;
 import com.opentok.android.SubscriberKit;
+import com.opentok.android.VideoUtils;
 
-public class RNOpenTokSubscriberView extends RNOpenTokView implements SubscriberKit.SubscriberListener {
+public class RNOpenTokSubscriberView extends RNOpenTokView implements SubscriberKit.SubscriberListener,
+        SubscriberKit.VideoStatsListener, SubscriberKit.AudioStatsListener, SubscriberKit.AudioLevelListener,
+        RNOpenTokStatsCollector.Listener {
     private Subscriber mSubscriber;
+    private RNOpenTokStatsCollector mStatsCollector;
     private Boolean mAudioEnabled;
     private Boolean mVideoEnabled;
+    private String mStreamId;
+    private boolean mAttached = false;
+    private Priority mPriority = Priority.NORMAL;
+    private boolean mPinned = false;
+    private long mPreferredSize = -1;
+    private float mPreferredFrameRate = -1;
+
+    /** Delay after the last size change before a new resolution is requested. */
+    private static final int PREFERENCE_DEBOUNCE = 300;
+
+    /** How long a view has to stay hidden before its video is paused. */
+    private static final int PAUSE_GRACE_PERIOD = 1000;
+
+    private boolean mPauseWhenHidden = true;
+    private boolean mVisible = false;
+    private boolean mVideoPaused = false;
+    private long mPausedSince;
+    private final Rect mVisibleRect = new Rect();
+
+    private static long sPausedTime = 0;
+    private static long sPausedSinceTotal = 0;
+    private static long sPauses = 0;
+    private static int sPausedViews = 0;
+
+    public enum Priority {
+        LOW,
+        NORMAL,
+        HIGH,
+    };
 
     public RNOpenTokSubscriberView(ThemedReactContext context) {
         super(context);
@@ -21,7 +60,14 @@ public class RNOpenTokSubscriberView extends RNOpenTokView implements Subscriber
     @Override
     public void onAttachedToWindow() {
         super.onAttachedToWindow();
-        RNOpenTokSessionManager.getSessionManager().setSubscriberListener(mSessionId, this);
+        mAttached = true;
+        getViewTreeObserver().addOnScrollChangedListener(mVisibilityListener);
+        getViewTreeObserver().addOnGlobalLayoutListener(mVisibilityListener);
+        RNOpenTokSessionManager.getSessionManager().setSubscriberListener(mSessionId, mStreamId, this);
+        if (mStatsCollector != null) {
+            mStatsCollector.start();
+        }
+        updateVisibility();
     }
 
     public void setAudio(Boolean enabled) {
@@ -33,48 +79,402 @@ public class RNOpenTokSubscriberView extends RNOpenTokView implements Subscriber
     }
 
     public void setVideo(Boolean enabled) {
+        mVideoEnabled = enabled;
+        updateSubscribeToVideo();
+    }
+
+    private void updateSubscribeToVideo() {
         if (mSubscriber != null) {
-            mSubscriber.setSubscribeToVideo(enabled);
+            boolean allowed = RNOpenTokSessionManager.getSessionManager().isVideoAllowed(mSessionId, getBoundStreamId());
+            boolean hostPaused = RNOpenTokSessionManager.getSessionManager().isHostPaused();
+            mSubscriber.setSubscribeToVideo(!Boolean.FALSE.equals(mVideoEnabled) && !mVideoPaused && allowed && !hostPaused);
         }
+    }
 
-        mVideoEnabled = enabled;
+    /** Called by the session manager when the app went to the background or came back. */
+    public void onHostPauseChanged() {
+        updateSubscribeToVideo();
+    }
+
+    /** Called by the session manager when the streams allowed to receive video changed. */
+    public void onVideoPolicyChanged() {
+        updateSubscribeToVideo();
+    }
+
+    /** Pinned views keep their video when the number of video streams is limited. */
+    public void setPinned(boolean pinned) {
+        mPinned = pinned;
+        updateRank();
+    }
+
+    private void updateRank() {
+        if (mSubscriber != null) {
+            RNOpenTokSessionManager.getSessionManager().onSubscriberRanked(mSessionId, getBoundStreamId(), mPinned, getPolicyPriority());
+        }
+    }
+
+    private int getPolicyPriority() {
+        switch (mPriority) {
+            case LOW:  return VideoQualityPolicy.PRIORITY_LOW;
+            case HIGH: return VideoQualityPolicy.PRIORITY_HIGH;
+            default:   return VideoQualityPolicy.PRIORITY_NORMAL;
+        }
+    }
+
+    /** Binds the view to one stream; null takes any stream no other view asked for. */
+    public void setStreamId(String streamId) {
+        if (streamId == null ? mStreamId == null : streamId.equals(mStreamId)) {
+            return;
+        }
+
+        if (mAttached) {
+            unregister();
+            mStreamId = streamId;
+            RNOpenTokSessionManager.getSessionManager().setSubscriberListener(mSessionId, mStreamId, this);
+        } else {
+            mStreamId = streamId;
+        }
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        RNOpenTokSessionManager.getSessionManager().removeSubscriberListener(mSessionId);
+        mAttached = false;
+        getViewTreeObserver().removeOnScrollChangedListener(mVisibilityListener);
+        removeOnGlobalLayoutListener(mVisibilityListener);
+        unregister();
+        if (mStatsCollector != null) {
+            mStatsCollector.stop();
+        }
+        // A detached view is gone for the pause stats too, whether it was paused,
+        // waiting out the grace period, or already hidden.
+        removeCallbacks(mPauseRunnable);
+        mVisible = false;
+        setVideoPaused(false);
+    }
+
+    /** Visibility **/
+
+    public void setPauseWhenHidden(boolean pauseWhenHidden) {
+        mPauseWhenHidden = pauseWhenHidden;
+        removeCallbacks(mPauseRunnable);
+        if (!pauseWhenHidden) {
+            setVideoPaused(false);
+        } else if (mAttached && !mVisible) {
+            postDelayed(mPauseRunnable, PAUSE_GRACE_PERIOD);
+        }
     }
 
-    private void startSubscribing(Stream stream) {
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateVisibility();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateVisibility();
+    }
+
+    private final VisibilityListener mVisibilityListener = new VisibilityListener();
+
+    private class VisibilityListener implements ViewTreeObserver.OnScrollChangedListener, ViewTreeObserver.OnGlobalLayoutListener {
+        @Override
+        public void onScrollChanged() {
+            updateVisibility();
+        }
+
+        @Override
+        public void onGlobalLayout() {
+            updateVisibility();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void removeOnGlobalLayoutListener(ViewTreeObserver.OnGlobalLayoutListener listener) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            getViewTreeObserver().removeOnGlobalLayoutListener(listener);
+        } else {
+            getViewTreeObserver().removeGlobalOnLayoutListener(listener);
+        }
+    }
+
+    /**
+     * A view is visible when it is attached, shown in a visible window and at least
+     * partly on screen. Hidden views pause their video after a grace period, so
+     * flicking through a list does not toggle it; shown views resume right away.
+     */
+    private void updateVisibility() {
+        boolean visible = mAttached
+                && getWindowVisibility() == VISIBLE
+                && isShown()
+                && getGlobalVisibleRect(mVisibleRect)
+                && !mVisibleRect.isEmpty();
+        if (visible == mVisible) {
+            return;
+        }
+        mVisible = visible;
+
+        removeCallbacks(mPauseRunnable);
+        if (visible || !mAttached) {
+            setVideoPaused(false);
+        } else if (mPauseWhenHidden) {
+            postDelayed(mPauseRunnable, PAUSE_GRACE_PERIOD);
+        }
+    }
+
+    private final Runnable mPauseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mAttached && !mVisible && mPauseWhenHidden) {
+                setVideoPaused(true);
+            }
+        }
+    };
+
+    private void setVideoPaused(boolean paused) {
+        if (paused == mVideoPaused) {
+            return;
+        }
+        mVideoPaused = paused;
+        updateSubscribeToVideo();
+
+        long now = SystemClock.elapsedRealtime();
+        synchronized (RNOpenTokSubscriberView.class) {
+            if (paused) {
+                mPausedSince = now;
+                sPausedSinceTotal += now;
+                sPauses++;
+                sPausedViews++;
+            } else {
+                sPausedTime += now - mPausedSince;
+                sPausedSinceTotal -= mPausedSince;
+                sPausedViews--;
+            }
+        }
+    }
+
+    /** Time subscriber views spent with video paused because they were hidden, including running pauses. */
+    static WritableMap getVideoPauseStats() {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (RNOpenTokSubscriberView.class) {
+            WritableMap stats = Arguments.createMap();
+            stats.putDouble("pausedTimeMs", sPausedTime + sPausedViews * now - sPausedSinceTotal);
+            stats.putDouble("pauses", sPauses);
+            stats.putInt("pausedViews", sPausedViews);
+            return stats;
+        }
+    }
+
+    /** Milliseconds between {@code onSubscriberStats} events, 0 turns sampling off. */
+    public void setStatsInterval(int interval) {
+        if (mStatsCollector != null) {
+            mStatsCollector.stop();
+            mStatsCollector = null;
+        }
+        if (interval > 0) {
+            mStatsCollector = new RNOpenTokStatsCollector(interval, getFrameCounter(), this);
+            if (mAttached) {
+                mStatsCollector.start();
+            }
+        }
+        if (mSubscriber != null) {
+            updateStatsListeners();
+        }
+    }
+
+    public void setPriority(Priority priority) {
+        mPriority = priority;
+        schedulePreferences();
+        updateRank();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        schedulePreferences();
+    }
+
+    private void schedulePreferences() {
+        removeCallbacks(mPreferencesRunnable);
+        postDelayed(mPreferencesRunnable, PREFERENCE_DEBOUNCE);
+    }
+
+    private final Runnable mPreferencesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            applyPreferences();
+        }
+    };
+
+    /** Asks for video matching the view size, so thumbnails do not decode full resolution. */
+    private void applyPreferences() {
+        int width = getWidth();
+        int height = getHeight();
+        if (mSubscriber == null || width == 0 || height == 0) {
+            return;
+        }
+
+        int priority = getPolicyPriority();
+        long size = VideoQualityPolicy.preferredSize(width, height, priority);
+        if (size != mPreferredSize) {
+            mPreferredSize = size;
+            mSubscriber.setPreferredResolution(new VideoUtils.Size(VideoQualityPolicy.width(size), VideoQualityPolicy.height(size)));
+        }
+
+        float frameRate = VideoQualityPolicy.preferredFrameRate(width, height, priority);
+        if (frameRate != mPreferredFrameRate) {
+            mPreferredFrameRate = frameRate;
+            mSubscriber.setPreferredFrameRate(frameRate);
+        }
+    }
+
+    /** Meters audio levels while the session manager needs them. */
+    public void updateAudioLevelListener() {
+        if (mSubscriber == null) {
+            return;
+        }
+        boolean enabled = RNOpenTokSessionManager.getSessionManager().isAudioLevelMeteringEnabled();
+        mSubscriber.setAudioLevelListener(enabled ? this : null);
+        if (!enabled) {
+            RNOpenTokSessionManager.getSessionManager().onAudioLevelsStopped(mSessionId, getBoundStreamId());
+        }
+    }
+
+    private void updateStatsListeners() {
+        boolean enabled = mStatsCollector != null;
+        mSubscriber.setVideoStatsListener(enabled ? this : null);
+        mSubscriber.setAudioStatsListener(enabled ? this : null);
+    }
+
+    private void unregister() {
+        String boundStreamId = getBoundStreamId();
+        if (mSubscriber != null) {
+            Session session = RNOpenTokSessionManager.getSessionManager().getSession(mSessionId);
+            if (session != null) {
+                session.unsubscribe(mSubscriber);
+            }
+            cleanUpSubscriber();
+        }
+        RNOpenTokSessionManager.getSessionManager().removeSubscriberListener(mSessionId, mStreamId, this, boundStreamId);
+    }
+
+    private String getBoundStreamId() {
+        return mSubscriber != null ? mSubscriber.getStream().getStreamId() : null;
+    }
+
+    private void startSubscribing(Session session, Stream stream) {
         Subscriber.Builder builder = new Subscriber.Builder(getContext(), stream);
         builder.renderer(getVideoRenderer());
 
         mSubscriber = builder.build();
         mSubscriber.setSubscriberListener(this);
         mSubscriber.setSubscribeToAudio(mAudioEnabled);
-        mSubscriber.setSubscribeToVideo(mVideoEnabled);
+        updateRank();
+        updateSubscribeToVideo();
+        if (mStatsCollector != null) {
+            mStatsCollector.clear();
+        }
+        updateStatsListeners();
+        updateAudioLevelListener();
+        mPreferredSize = -1;
+        mPreferredFrameRate = -1;
+        applyPreferences();
 
-        Session session = RNOpenTokSessionManager.getSessionManager().getSession(mSessionId);
         session.subscribe(mSubscriber);
 
         attachVideoView();
     }
 
     private void cleanUpSubscriber() {
+        RNOpenTokSessionManager.getSessionManager().onAudioLevelsStopped(mSessionId, getBoundStreamId());
+        RNOpenTokSessionManager.getSessionManager().onSubscriberStopped(mSessionId, getBoundStreamId());
         detachVideoView();
         mSubscriber = null;
     }
 
     public void onStreamReceived(Session session, Stream stream) {
         if (mSubscriber == null) {
-            startSubscribing(stream);
-            sendEvent(Events.EVENT_SUBSCRIBE_START, Arguments.createMap());
+            startSubscribing(session, stream);
+
+            WritableMap payload = Arguments.createMap();
+            payload.putString("streamId", stream.getStreamId());
+            sendEvent(Events.EVENT_SUBSCRIBE_START, payload);
         }
     }
 
     public void onStreamDropped(Session session, Stream stream) {
-        sendEvent(Events.EVENT_SUBSCRIBE_STOP, Arguments.createMap());
+        if (mSubscriber != null && stream.getStreamId().equals(getBoundStreamId())) {
+            cleanUpSubscriber();
+        }
+
+        WritableMap payload = Arguments.createMap();
+        payload.putString("streamId", stream.getStreamId());
+        sendEvent(Events.EVENT_SUBSCRIBE_STOP, payload);
+    }
+
+    /** Called when a view asking for this stream took it over. */
+    public void onStreamReleased(Session session, Stream stream) {
+        if (mSubscriber != null && stream.getStreamId().equals(getBoundStreamId())) {
+            session.unsubscribe(mSubscriber);
+            cleanUpSubscriber();
+
+            WritableMap payload = Arguments.createMap();
+            payload.putString("streamId", stream.getStreamId());
+            sendEvent(Events.EVENT_SUBSCRIBE_STOP, payload);
+        }
+    }
+
+    /** Called when another view already shows the stream this view asked for. */
+    public void onStreamRejected(String streamId, String message) {
+        WritableMap payload = Arguments.createMap();
+        payload.putString("streamId", streamId);
+        payload.putString("error", message);
+        sendEvent(Events.EVENT_SUBSCRIBE_ERROR, payload);
+    }
+
+    public void onSessionDisconnected(Session session) {
+        if (mSubscriber != null && mSubscriber.getSession() == session) {
+            String streamId = getBoundStreamId();
+            cleanUpSubscriber();
+
+            WritableMap payload = Arguments.createMap();
+            payload.putString("streamId", streamId);
+            sendEvent(Events.EVENT_SUBSCRIBE_STOP, payload);
+        }
+    }
+
+    @Override
+    public void onStats(WritableMap stats) {
+        if (mSubscriber == null) {
+            return;
+        }
+        stats.putString("streamId", getBoundStreamId());
+        sendCoalescedEvent(Events.EVENT_SUBSCRIBER_STATS, stats);
+    }
+
+    /** Stats listeners **/
+
+    @Override
+    public void onVideoStats(SubscriberKit subscriberKit, SubscriberKit.SubscriberVideoStats stats) {
+        if (mStatsCollector != null) {
+            mStatsCollector.onVideoStats(stats.videoPacketsReceived, stats.videoPacketsLost, stats.videoBytesReceived, stats.timeStamp, 1);
+        }
+    }
+
+    @Override
+    public void onAudioStats(SubscriberKit subscriberKit, SubscriberKit.SubscriberAudioStats stats) {
+        if (mStatsCollector != null) {
+            mStatsCollector.onAudioStats(stats.audioPacketsReceived, stats.audioPacketsLost, stats.audioBytesReceived, stats.timeStamp, 1);
+        }
+    }
+
+    @Override
+    public void onAudioLevelUpdated(SubscriberKit subscriberKit, float audioLevel) {
+        if (subscriberKit == mSubscriber) {
+            RNOpenTokSessionManager.getSessionManager().onAudioLevel(mSessionId, getBoundStreamId(), audioLevel);
+        }
     }
 
     /** Subscribe listener **/
@@ -1,8 +1,12 @@
 package com.rnopentok;
 
+import android.support.annotation.Nullable;
+
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.annotations.ReactProp;
 
+import java.util.Map;
+
 public class RNOpenTokSubscriberViewManager extends RNOpenTokViewManager<RNOpenTokSubscriberView> {
     @Override
     public String getName() {
@@ -14,6 +18,15 @@ public class RNOpenTokSubscriberViewManager extends RNOpenTokViewManager<RNOpenT
         return new RNOpenTokSubscriberView(reactContext);
     }
 
+    @Override
+    public Map<String, Object> getExportedCustomDirectEventTypeConstants() {
+        return directEvents(
+                Events.EVENT_SUBSCRIBE_START,
+                Events.EVENT_SUBSCRIBE_STOP,
+                Events.EVENT_SUBSCRIBE_ERROR,
+                Events.EVENT_SUBSCRIBER_STATS);
+    }
+
     @ReactProp(name = "mute")
     public void setMute(RNOpenTokSubscriberView view, Boolean mute) {
         view.setAudio(!mute);
@@ -23,4 +36,31 @@ public class RNOpenTokSubscriberViewManager extends RNOpenTokViewManager<RNOpenT
     public void setVideo(RNOpenTokSubscriberView view, Boolean video) {
         view.setVideo(video);
     }
+
+    @ReactProp(name = "streamId")
+    public void setStreamId(RNOpenTokSubscriberView view, String streamId) {
+        view.setStreamId(streamId);
+    }
+
+    @ReactProp(name = "priority")
+    public void setPriority(RNOpenTokSubscriberView view, @Nullable String priority) {
+        view.setPriority(priority != null
+                ? RNOpenTokSubscriberView.Priority.valueOf(priority.toUpperCase())
+                : RNOpenTokSubscriberView.Priority.NORMAL);
+    }
+
+    @ReactProp(name = "pinned")
+    public void setPinned(RNOpenTokSubscriberView view, boolean pinned) {
+        view.setPinned(pinned);
+    }
+
+    @ReactProp(name = "pauseWhenHidden", defaultBoolean = true)
+    public void setPauseWhenHidden(RNOpenTokSubscriberView view, boolean pauseWhenHidden) {
+        view.setPauseWhenHidden(pauseWhenHidden);
+    }
+
+    @ReactProp(name = "statsInterval")
+    public void setStatsInterval(RNOpenTokSubscriberView view, int statsInterval) {
+        view.setStatsInterval(statsInterval);
+    }
 }
@@ -0,0 +1,328 @@
+package com.rnopentok;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.support.annotation.Nullable;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.opentok.android.BaseVideoCapturer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Capturer handed to the publisher, which takes its frames from a source that can be
+ * replaced while publishing. Switching between the camera and screen sharing only
+ * stops one source and starts the other, so the stream and every subscriber stay
+ * connected.
+ *
+ * With a {@link FrameProcessorChain} set, frames are copied into pooled I420 buffers and
+ * processed on a dedicated thread before they are passed on. While that thread is
+ * still busy with {@link #MAX_PENDING_FRAMES} frames, new ones are dropped instead of
+ * holding up the source. 32-bit frames of odd size lose their last column or row.
+ * Frames the chain cannot read are dropped rather than passed on unprocessed, since
+ * a processor may be hiding part of the picture.
+ */
+class RNOpenTokSwitchableCapturer extends BaseVideoCapturer {
+    interface Source {
+        /** Frames of the source go to {@code output}, or to the source itself when null. */
+        void setOutput(@Nullable RNOpenTokSwitchableCapturer output);
+    }
+
+    static final int MAX_PENDING_FRAMES = 2;
+    private static final double BUDGET_SHARE = 0.5;
+    private static final double MIN_FRAME_INTERVAL_MS = 1000.0 / 60;
+    private static final double MAX_FRAME_INTERVAL_MS = 1000;
+    private static final int MSG_FRAME = 1;
+
+    private BaseVideoCapturer mSource;
+    private boolean mInitialized = false;
+    private volatile boolean mCapturing = false;
+    private long mSwitches = 0;
+
+    @Nullable private volatile FrameProcessorChain mProcessors;
+    private final FrameBufferPool mBufferPool = new FrameBufferPool(MAX_PENDING_FRAMES + 1);
+    private final ArrayDeque<I420Frame> mFreeFrames = new ArrayDeque<>();
+    private int mPendingFrames = 0;
+    private HandlerThread mProcessingThread;
+    private Handler mProcessingHandler;
+
+    /* Owned by the processing thread */
+    private long mLastFrameAt = 0;
+    private double mFrameIntervalMs = 1000.0 / 30;
+
+    private volatile long mFramesProcessed = 0;
+    private volatile long mFramesDropped = 0;
+
+    <S extends BaseVideoCapturer & Source> RNOpenTokSwitchableCapturer(S source) {
+        setSource(source);
+    }
+
+    /**
+     * Stops the current source and starts {@code source} if capture is running.
+     * Returns the previous source, which the caller may reuse or destroy.
+     */
+    synchronized <S extends BaseVideoCapturer & Source> BaseVideoCapturer setSource(S source) {
+        BaseVideoCapturer previous = mSource;
+        if (previous == source) {
+            return previous;
+        }
+        if (previous != null) {
+            if (mCapturing) {
+                previous.stopCapture();
+            }
+            ((Source) previous).setOutput(null);
+            mSwitches++;
+        }
+
+        mSource = source;
+        source.setOutput(this);
+        if (mInitialized) {
+            source.init();
+        }
+        if (mCapturing) {
+            source.startCapture();
+        }
+        return previous;
+    }
+
+    synchronized BaseVideoCapturer getSource() {
+        return mSource;
+    }
+
+    synchronized long getSwitchCount() {
+        return mSwitches;
+    }
+
+    /**
+     * Processors applied to every frame from now on, or null to pass frames on directly
+     * and stop the processing thread.
+     */
+    synchronized void setProcessors(@Nullable FrameProcessorChain processors) {
+        mProcessors = processors;
+        if (processors == null) {
+            quitProcessingThread();
+        } else if (mProcessingThread == null) {
+            mProcessingThread = new HandlerThread("RNOpenTokFrameProcessing");
+            mProcessingThread.start();
+            mProcessingHandler = new Handler(mProcessingThread.getLooper(), mProcessingCallback);
+        }
+    }
+
+    /** Frames still queued are released when the thread gets to them. */
+    private void quitProcessingThread() {
+        if (mProcessingThread != null) {
+            final HandlerThread processingThread = mProcessingThread;
+            mProcessingHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    processingThread.quit();
+                }
+            });
+            mProcessingThread = null;
+            mProcessingHandler = null;
+        }
+    }
+
+    /** Frames from sources **/
+
+    void deliverBufferFrame(ByteBuffer frame, int format, int width, int height, int rotation, boolean mirror) {
+        FrameProcessorChain processors = mProcessors;
+        if (processors == null) {
+            provideBufferFrame(frame, format, width, height, rotation, mirror);
+            return;
+        }
+        if (format == I420 && I420Frame.canHold(width, height)) {
+            I420Frame pending = acquireFrame(width, height);
+            if (pending != null) {
+                I420Frame.copyI420(frame, width, height, pending.buffer);
+                enqueue(pending, width, height, rotation, mirror);
+            }
+        } else if (format == ABGR && I420Frame.canHold(width & ~1, height & ~1)) {
+            I420Frame pending = acquireFrame(width & ~1, height & ~1);
+            if (pending != null) {
+                ArgbToI420Converter.convert(frame, width & ~1, height & ~1, width * 4, pending.buffer);
+                enqueue(pending, width & ~1, height & ~1, rotation, mirror);
+            }
+        } else {
+            dropFrame();
+        }
+    }
+
+    void deliverByteArrayFrame(byte[] frame, int format, int width, int height, int rotation, boolean mirror) {
+        FrameProcessorChain processors = mProcessors;
+        if (processors == null) {
+            provideByteArrayFrame(frame, format, width, height, rotation, mirror);
+            return;
+        }
+        if (format == NV21 && I420Frame.canHold(width, height)) {
+            I420Frame pending = acquireFrame(width, height);
+            if (pending != null) {
+                I420Frame.copyNv21(frame, width, height, pending.buffer);
+                enqueue(pending, width, height, rotation, mirror);
+            }
+        } else {
+            dropFrame();
+        }
+    }
+
+    void deliverIntArrayFrame(int[] frame, int format, int width, int height, int rotation, boolean mirror) {
+        FrameProcessorChain processors = mProcessors;
+        if (processors == null) {
+            provideIntArrayFrame(frame, format, width, height, rotation, mirror);
+            return;
+        }
+        if (format == ARGB && I420Frame.canHold(width & ~1, height & ~1)) {
+            I420Frame pending = acquireFrame(width & ~1, height & ~1);
+            if (pending != null) {
+                ArgbToI420Converter.convert(frame, width & ~1, height & ~1, width, pending.buffer);
+                enqueue(pending, width & ~1, height & ~1, rotation, mirror);
+            }
+        } else {
+            dropFrame();
+        }
+    }
+
+    private synchronized void dropFrame() {
+        mFramesDropped++;
+    }
+
+    /** Returns null and counts a dropped frame while the processing thread is behind. */
+    @Nullable
+    private synchronized I420Frame acquireFrame(int width, int height) {
+        if (mPendingFrames >= MAX_PENDING_FRAMES || mProcessingHandler == null) {
+            mFramesDropped++;
+            return null;
+        }
+        mPendingFrames++;
+        I420Frame frame = mFreeFrames.poll();
+        if (frame == null) {
+            frame = new I420Frame();
+        }
+        frame.buffer = mBufferPool.acquire(I420Frame.size(width, height));
+        return frame;
+    }
+
+    private synchronized void enqueue(I420Frame frame, int width, int height, int rotation, boolean mirror) {
+        frame.width = width;
+        frame.height = height;
+        frame.rotation = rotation;
+        frame.mirror = mirror;
+        frame.capturedAt = System.nanoTime();
+        if (mProcessingHandler != null) {
+            mProcessingHandler.obtainMessage(MSG_FRAME, frame).sendToTarget();
+        } else {
+            releaseFrame(frame);
+        }
+    }
+
+    private synchronized void releaseFrame(I420Frame frame) {
+        mBufferPool.release(frame.buffer);
+        frame.buffer = null;
+        mFreeFrames.add(frame);
+        mPendingFrames--;
+    }
+
+    /**
+     * The budget is a share of the time between frames, which follows the actual
+     * rate of the source rather than the one it asked for.
+     */
+    private final Handler.Callback mProcessingCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            if (msg.what != MSG_FRAME) {
+                return false;
+            }
+            I420Frame frame = (I420Frame) msg.obj;
+            try {
+                if (mLastFrameAt != 0) {
+                    double intervalMs = (frame.capturedAt - mLastFrameAt) / 1e6;
+                    intervalMs = Math.max(MIN_FRAME_INTERVAL_MS, Math.min(MAX_FRAME_INTERVAL_MS, intervalMs));
+                    mFrameIntervalMs += 0.2 * (intervalMs - mFrameIntervalMs);
+                }
+                mLastFrameAt = frame.capturedAt;
+
+                FrameProcessorChain processors = mProcessors;
+                if (mCapturing) {
+                    if (processors != null && !processors.process(frame, mFrameIntervalMs * BUDGET_SHARE)) {
+                        dropFrame();
+                        return true;
+                    }
+                    frame.buffer.position(0);
+                    provideBufferFrame(frame.buffer, I420, frame.width, frame.height, frame.rotation, frame.mirror);
+                    mFramesProcessed++;
+                }
+            } finally {
+                releaseFrame(frame);
+            }
+            return true;
+        }
+    };
+
+    WritableMap getProcessorStats() {
+        WritableMap stats = Arguments.createMap();
+        stats.putDouble("framesProcessed", mFramesProcessed);
+        stats.putDouble("framesDropped", mFramesDropped);
+        WritableArray processors = Arguments.createArray();
+        FrameProcessorChain chain = mProcessors;
+        for (int i = 0; chain != null && i < chain.size(); i++) {
+            WritableMap processor = Arguments.createMap();
+            processor.putString("name", chain.getName(i));
+            processor.putDouble("runs", chain.getRunCount(i));
+            processor.putDouble("skips", chain.getSkipCount(i));
+            processor.putDouble("averageMs", chain.getAverageMs(i));
+            processor.putDouble("maxMs", chain.getMaxMs(i));
+            processors.pushMap(processor);
+        }
+        stats.putArray("processors", processors);
+        return stats;
+    }
+
+    @Override
+    public synchronized void init() {
+        mInitialized = true;
+        mSource.init();
+    }
+
+    @Override
+    public synchronized int startCapture() {
+        mCapturing = true;
+        return mSource.startCapture();
+    }
+
+    @Override
+    public synchronized int stopCapture() {
+        mCapturing = false;
+        return mSource.stopCapture();
+    }
+
+    @Override
+    public synchronized boolean isCaptureStarted() {
+        return mCapturing;
+    }
+
+    @Override
+    public synchronized CaptureSettings getCaptureSettings() {
+        return mSource.getCaptureSettings();
+    }
+
+    @Override
+    public synchronized void destroy() {
+        mCapturing = false;
+        mSource.destroy();
+        quitProcessingThread();
+    }
+
+    @Override
+    public synchronized void onPause() {
+        mSource.onPause();
+    }
+
+    @Override
+    public synchronized void onResume() {
+        mSource.onResume();
+    }
+}
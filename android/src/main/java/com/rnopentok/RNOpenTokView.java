@@ -1,18 +1,25 @@
 package com.rnopentok;
 
+import android.view.Choreographer;
 import android.view.SurfaceView;
+import android.view.View;
 import android.widget.FrameLayout;
 
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.WritableMap;
-import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.facebook.react.uimanager.ThemedReactContext;
+import com.facebook.react.uimanager.UIManagerModule;
+import com.facebook.react.uimanager.events.EventDispatcher;
 import com.opentok.android.BaseVideoRenderer;
-import com.opentok.android.VideoRenderFactory;
 
-public class RNOpenTokView extends FrameLayout {
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RNOpenTokView extends FrameLayout implements RNOpenTokFirstFrameRenderer.Listener {
     protected String mSessionId;
-    private static ThemedReactContext reactContext = null;
-    private BaseVideoRenderer renderer;
+    private final RNOpenTokFirstFrameRenderer renderer;
+    private String mVideoScale = BaseVideoRenderer.STYLE_VIDEO_FILL;
+    private boolean mZOrderMediaOverlay = false;
+    private final EventDispatcher mEventDispatcher;
 
     public enum VideoScale {
         FILL,
@@ -22,26 +29,64 @@ public class RNOpenTokView extends FrameLayout {
     public RNOpenTokView(ThemedReactContext context) {
         super(context);
 
-        reactContext = context;
-
-        renderer = VideoRenderFactory.constructRenderer(getContext());
+        renderer = new RNOpenTokFirstFrameRenderer(this);
+        mEventDispatcher = context.getNativeModule(UIManagerModule.class).getEventDispatcher();
     }
 
     public void setSessionId(String sessionId) {
         mSessionId = sessionId;
     }
 
-    protected BaseVideoRenderer getVideoRenderer() {
+    /**
+     * Renderer to hand to a publisher or subscriber. The renderer doing the drawing is
+     * only taken from {@link RNOpenTokRendererPool} here, so views that never show
+     * video never create one.
+     */
+    protected RNOpenTokFirstFrameRenderer getVideoRenderer() {
+        if (renderer.getRenderer() == null) {
+            BaseVideoRenderer pooled = RNOpenTokRendererPool.getRendererPool().acquire(getContext());
+            pooled.setStyle(BaseVideoRenderer.STYLE_VIDEO_SCALE, mVideoScale);
+            if (pooled.getView() instanceof SurfaceView) {
+                ((SurfaceView)pooled.getView()).setZOrderMediaOverlay(mZOrderMediaOverlay);
+            }
+            renderer.setRenderer(pooled);
+        }
+        return renderer;
+    }
+
+    /** Counts frames without creating a renderer. */
+    protected RNOpenTokFirstFrameRenderer getFrameCounter() {
         return renderer;
     }
 
     protected void attachVideoView() {
-        addView(renderer.getView(), new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
+        addView(getVideoRenderer().getView(), new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT));
         requestLayout();
     }
 
+    /** Removes the video and returns its renderer to the pool. */
     protected void detachVideoView() {
-        removeView(renderer.getView());
+        BaseVideoRenderer pooled = renderer.getRenderer();
+        if (pooled != null) {
+            removeView(pooled.getView());
+            renderer.setRenderer(null);
+            RNOpenTokRendererPool.getRendererPool().release(pooled);
+        }
+    }
+
+    /** A renderer taken for a publisher or subscriber that never got attached goes back too. */
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        BaseVideoRenderer pooled = renderer.getRenderer();
+        if (pooled != null && pooled.getView().getParent() == null) {
+            renderer.setRenderer(null);
+            RNOpenTokRendererPool.getRendererPool().release(pooled);
+        }
+        if (mLayoutScheduled) {
+            Choreographer.getInstance().removeFrameCallback(mLayoutCallback);
+            mLayoutScheduled = false;
+        }
     }
 
     public void setVideoScale(VideoScale scaleType) {
@@ -53,13 +98,16 @@ public class RNOpenTokView extends FrameLayout {
             default: throw new IllegalArgumentException("Invalid VideoScale value");
         }
 
+        mVideoScale = value;
         renderer.setStyle(BaseVideoRenderer.STYLE_VIDEO_SCALE, value);
     }
 
     public void setZOrderMediaOverlay(boolean value) {
-        if (renderer.getView() instanceof SurfaceView) {
-            ((SurfaceView)renderer.getView()).setZOrderMediaOverlay(value);
-            int index = indexOfChild(renderer.getView());
+        mZOrderMediaOverlay = value;
+        View view = renderer.getView();
+        if (view instanceof SurfaceView) {
+            ((SurfaceView)view).setZOrderMediaOverlay(value);
+            int index = indexOfChild(view);
             if (index != -1) {
                 removeViewAt(index);
                 attachVideoView();
@@ -67,27 +115,61 @@ public class RNOpenTokView extends FrameLayout {
         }
     }
 
+    @Override
+    public void onFirstFrame() {}
+
+    /** Sends an event to the callback prop of this view, not to every listener in JS. */
     protected void sendEvent(Events event, WritableMap payload) {
-        reactContext
-                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                .emit(event.toString(), payload);
+        mEventDispatcher.dispatchEvent(RNOpenTokViewEvent.obtain(getId(), event, payload, false));
+    }
+
+    /** Replaces an event of this type from this view that has not been delivered yet. */
+    protected void sendCoalescedEvent(Events event, WritableMap payload) {
+        mEventDispatcher.dispatchEvent(RNOpenTokViewEvent.obtain(getId(), event, payload, true));
     }
 
     /** View methods **/
 
+    /**
+     * The renderer's surface is added outside of React's layout, so it is measured and
+     * laid out here. Requests are coalesced into one pass on the next frame.
+     */
     @Override
     public void requestLayout() {
         super.requestLayout();
-        post(mLayoutRunnable);
+        if (mLayoutCallback == null) {
+            return;
+        }
+        if (mLayoutScheduled) {
+            sSkippedLayoutPasses.incrementAndGet();
+            return;
+        }
+        mLayoutScheduled = true;
+        Choreographer.getInstance().postFrameCallback(mLayoutCallback);
     }
 
-    private final Runnable mLayoutRunnable = new Runnable() {
+    private boolean mLayoutScheduled = false;
+
+    private final Choreographer.FrameCallback mLayoutCallback = new Choreographer.FrameCallback() {
         @Override
-        public void run() {
+        public void doFrame(long frameTimeNanos) {
+            mLayoutScheduled = false;
+            sLayoutPasses.incrementAndGet();
             measure(
                     MeasureSpec.makeMeasureSpec(getWidth(), MeasureSpec.EXACTLY),
                     MeasureSpec.makeMeasureSpec(getHeight(), MeasureSpec.EXACTLY));
             layout(getLeft(), getTop(), getRight(), getBottom());
         }
     };
+
+    private static final AtomicLong sLayoutPasses = new AtomicLong();
+    private static final AtomicLong sSkippedLayoutPasses = new AtomicLong();
+
+    /** Layout passes run by all views, and requests merged into an already scheduled one. */
+    static WritableMap getLayoutStats() {
+        WritableMap stats = Arguments.createMap();
+        stats.putDouble("passes", sLayoutPasses.get());
+        stats.putDouble("skipped", sSkippedLayoutPasses.get());
+        return stats;
+    }
 }
@@ -0,0 +1,63 @@
+package com.rnopentok;
+
+import android.support.annotation.Nullable;
+import android.support.v4.util.Pools;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.uimanager.events.Event;
+import com.facebook.react.uimanager.events.RCTEventEmitter;
+
+/**
+ * Event of one publisher or subscriber view, delivered to that view's callback prop
+ * only. Instances are pooled and handed back once React Native disposes them.
+ * Coalescing events replace an undelivered event of the same type on the same view.
+ */
+class RNOpenTokViewEvent extends Event<RNOpenTokViewEvent> {
+    private static final Pools.SynchronizedPool<RNOpenTokViewEvent> EVENTS_POOL = new Pools.SynchronizedPool<>(16);
+
+    private Events mEvent;
+    @Nullable private WritableMap mPayload;
+    private boolean mCoalesce;
+
+    private RNOpenTokViewEvent() {}
+
+    static RNOpenTokViewEvent obtain(int viewTag, Events event, @Nullable WritableMap payload, boolean coalesce) {
+        RNOpenTokViewEvent viewEvent = EVENTS_POOL.acquire();
+        if (viewEvent == null) {
+            viewEvent = new RNOpenTokViewEvent();
+        }
+        viewEvent.init(viewTag);
+        viewEvent.mEvent = event;
+        viewEvent.mPayload = payload;
+        viewEvent.mCoalesce = coalesce;
+        return viewEvent;
+    }
+
+    @Override
+    public String getEventName() {
+        return mEvent.toString();
+    }
+
+    @Override
+    public boolean canCoalesce() {
+        return mCoalesce;
+    }
+
+    @Override
+    public short getCoalescingKey() {
+        return 0;
+    }
+
+    @Override
+    public void dispatch(RCTEventEmitter rctEventEmitter) {
+        rctEventEmitter.receiveEvent(getViewTag(), getEventName(), mPayload != null ? mPayload : Arguments.createMap());
+    }
+
+    @Override
+    public void onDispose() {
+        mEvent = null;
+        mPayload = null;
+        EVENTS_POOL.release(this);
+    }
+}
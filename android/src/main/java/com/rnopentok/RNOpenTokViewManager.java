@@ -1,8 +1,11 @@
 package com.rnopentok;
 
+import com.facebook.react.common.MapBuilder;
 import com.facebook.react.uimanager.SimpleViewManager;
 import com.facebook.react.uimanager.annotations.ReactProp;
 
+import java.util.Map;
+
 /* Left here for future prop implementations. */
 abstract class RNOpenTokViewManager<T extends RNOpenTokView> extends SimpleViewManager<T> {
     @ReactProp(name = "sessionId")
@@ -19,4 +22,13 @@ abstract class RNOpenTokViewManager<T extends RNOpenTokView> extends SimpleViewM
     public void setZOrderMediaOverlay(T view, boolean value) {
         view.setZOrderMediaOverlay(value);
     }
+
+    /** Registers the events a view sends with {@code sendEvent} under their callback prop names. */
+    protected static Map<String, Object> directEvents(Events... events) {
+        Map<String, Object> constants = MapBuilder.newHashMap();
+        for (Events event : events) {
+            constants.put(event.toString(), MapBuilder.of("registrationName", event.toString()));
+        }
+        return constants;
+    }
 }
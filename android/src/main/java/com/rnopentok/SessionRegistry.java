@@ -0,0 +1,47 @@
+package com.rnopentok;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Entries keyed by sessionId, written from the bridge and UI threads and read from SDK
+ * callbacks, which never block on it. Every change is a single atomic map operation:
+ * registering returns the entry it replaced, and an owner unregisters only its own
+ * entry, so one that leaves late cannot drop a newer registration. Null ids are ignored.
+ */
+final class SessionRegistry<T> {
+    private final ConcurrentHashMap<String, T> mEntries = new ConcurrentHashMap<>();
+
+    /** Returns the entry that was replaced, or null. */
+    T register(String id, T entry) {
+        return id != null ? mEntries.put(id, entry) : null;
+    }
+
+    /** Removes whatever is registered for the id and returns it, or null. */
+    T unregister(String id) {
+        return id != null ? mEntries.remove(id) : null;
+    }
+
+    /** Removes the entry only while it is still the one registered for the id. */
+    boolean unregister(String id, T entry) {
+        return id != null && mEntries.remove(id, entry);
+    }
+
+    T get(String id) {
+        return id != null ? mEntries.get(id) : null;
+    }
+
+    /** Whether the entry was neither replaced nor unregistered. */
+    boolean isCurrent(String id, T entry) {
+        return id != null && mEntries.get(id) == entry;
+    }
+
+    Set<String> getIds() {
+        return mEntries.keySet();
+    }
+
+    Collection<T> getEntries() {
+        return mEntries.values();
+    }
+}
@@ -0,0 +1,57 @@
+package com.rnopentok;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size ring of the latest samples with allocation-free mean and percentiles.
+ * Once full, every new sample replaces the oldest one.
+ */
+final class StatsRing {
+    private final double[] mValues;
+    private final double[] mScratch;
+    private int mNext = 0;
+    private int mSize = 0;
+
+    StatsRing(int capacity) {
+        mValues = new double[Math.max(1, capacity)];
+        mScratch = new double[mValues.length];
+    }
+
+    void add(double value) {
+        mValues[mNext] = value;
+        mNext = (mNext + 1) % mValues.length;
+        mSize = Math.min(mSize + 1, mValues.length);
+    }
+
+    void clear() {
+        mNext = 0;
+        mSize = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    double sum() {
+        double sum = 0;
+        for (int i = 0; i < mSize; i++) {
+            sum += mValues[i];
+        }
+        return sum;
+    }
+
+    double mean() {
+        return mSize == 0 ? 0 : sum() / mSize;
+    }
+
+    /** Nearest-rank percentile, {@code p} between 0 and 1; 0 when empty. */
+    double percentile(double p) {
+        if (mSize == 0) {
+            return 0;
+        }
+        System.arraycopy(mValues, 0, mScratch, 0, mSize);
+        Arrays.sort(mScratch, 0, mSize);
+        int rank = (int) Math.ceil(p * mSize);
+        return mScratch[Math.max(0, Math.min(mSize - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,60 @@
+package com.rnopentok;
+
+/**
+ * Maps the on-screen size of a subscriber view and its priority to the resolution
+ * and frame rate to ask the SDK for. Sizes are rounded up to multiples of
+ * {@link #SIZE_STEP} so small layout changes do not produce new requests.
+ */
+final class VideoQualityPolicy {
+    static final int PRIORITY_LOW = 0;
+    static final int PRIORITY_NORMAL = 1;
+    static final int PRIORITY_HIGH = 2;
+
+    static final int SIZE_STEP = 16;
+    static final float MAX_FRAME_RATE = 30;
+
+    private static final int THUMBNAIL_AREA = 320 * 240;
+    private static final int MEDIUM_AREA = 640 * 480;
+
+    private VideoQualityPolicy() {}
+
+    /** Packs the preferred size, read it with {@link #width(long)} and {@link #height(long)}. */
+    static long preferredSize(int viewWidth, int viewHeight, int priority) {
+        int width = viewWidth;
+        int height = viewHeight;
+        if (priority == PRIORITY_LOW) {
+            width /= 2;
+            height /= 2;
+        }
+        return ((long) roundUp(width) << 32) | roundUp(height);
+    }
+
+    static int width(long size) {
+        return (int) (size >>> 32);
+    }
+
+    static int height(long size) {
+        return (int) size;
+    }
+
+    static float preferredFrameRate(int viewWidth, int viewHeight, int priority) {
+        if (priority == PRIORITY_HIGH) {
+            return MAX_FRAME_RATE;
+        }
+
+        long area = (long) viewWidth * viewHeight;
+        float frameRate;
+        if (area <= THUMBNAIL_AREA) {
+            frameRate = 7.5f;
+        } else if (area <= MEDIUM_AREA) {
+            frameRate = 15;
+        } else {
+            frameRate = MAX_FRAME_RATE;
+        }
+        return priority == PRIORITY_LOW ? Math.max(7.5f, frameRate / 2) : frameRate;
+    }
+
+    private static int roundUp(int value) {
+        return Math.max(SIZE_STEP, (value + SIZE_STEP - 1) / SIZE_STEP * SIZE_STEP);
+    }
+}
@@ -0,0 +1,193 @@
+package com.rnopentok;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which subscribed streams of a session receive video when at most
+ * {@code maxStreams} may. Streams are ranked by pin state, then priority, then recent
+ * audio activity. Free slots are filled and pinned streams get a slot right away,
+ * but replacing a stream that holds a slot by a more active one happens at most once
+ * per {@link #SWAP_INTERVAL} ms, only after the stream held its slot for
+ * {@link #MIN_HOLD_TIME} ms, and only when the newcomer is clearly more active.
+ *
+ * Times are milliseconds on the caller's clock.
+ */
+final class VideoSlotPolicy {
+    static final long SWAP_INTERVAL = 2000;
+    static final long MIN_HOLD_TIME = 5000;
+    static final long ACTIVITY_TIME = 2000;
+    static final double ACTIVITY_MARGIN = 0.05;
+
+    private static final class Candidate {
+        final String key;
+        boolean pinned = false;
+        int priority = VideoQualityPolicy.PRIORITY_NORMAL;
+        double activity = 0;
+        long activityAt;
+        long slotSince;
+        double rankActivity;
+
+        Candidate(String key, long now) {
+            this.key = key;
+            this.activityAt = now;
+        }
+
+        double activityAt(long now) {
+            return activity * Math.exp(-Math.max(0, now - activityAt) / (double) ACTIVITY_TIME);
+        }
+    }
+
+    private static final Comparator<Candidate> RANKING = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            if (a.pinned != b.pinned) {
+                return a.pinned ? -1 : 1;
+            }
+            if (a.priority != b.priority) {
+                return b.priority - a.priority;
+            }
+            return Double.compare(b.rankActivity, a.rankActivity);
+        }
+    };
+
+    private final HashMap<String, Candidate> mCandidates = new HashMap<>();
+    private final HashSet<String> mVideo = new HashSet<>();
+    private int mMaxStreams = 0;
+    private long mLastSwap = Long.MIN_VALUE / 2;
+    private long mReassignments = 0;
+
+    /** 0 or less lets every stream receive video. */
+    synchronized void setMaxStreams(int maxStreams) {
+        mMaxStreams = maxStreams;
+    }
+
+    synchronized int getMaxStreams() {
+        return mMaxStreams;
+    }
+
+    synchronized void add(String key, long now) {
+        if (!mCandidates.containsKey(key)) {
+            mCandidates.put(key, new Candidate(key, now));
+        }
+    }
+
+    synchronized void remove(String key) {
+        mCandidates.remove(key);
+        mVideo.remove(key);
+    }
+
+    synchronized void setRank(String key, boolean pinned, int priority) {
+        Candidate candidate = mCandidates.get(key);
+        if (candidate != null) {
+            candidate.pinned = pinned;
+            candidate.priority = priority;
+        }
+    }
+
+    synchronized void onAudioLevel(String key, double level, long now) {
+        Candidate candidate = mCandidates.get(key);
+        if (candidate != null) {
+            double activity = candidate.activityAt(now);
+            double alpha = 1 - Math.exp(-Math.max(0, now - candidate.activityAt) / (double) ACTIVITY_TIME);
+            candidate.activity = activity + alpha * (level - activity);
+            candidate.activityAt = now;
+        }
+    }
+
+    synchronized boolean hasVideo(String key) {
+        return mMaxStreams <= 0 || mVideo.contains(key);
+    }
+
+    synchronized Set<String> getVideoStreams() {
+        if (mMaxStreams <= 0) {
+            return new HashSet<>(mCandidates.keySet());
+        }
+        return new HashSet<>(mVideo);
+    }
+
+    synchronized int getStreamCount() {
+        return mCandidates.size();
+    }
+
+    synchronized long getReassignmentCount() {
+        return mReassignments;
+    }
+
+    /** Re-evaluates the slots. Returns true when the set of streams with video changed. */
+    synchronized boolean update(long now) {
+        if (mMaxStreams <= 0) {
+            boolean changed = !mVideo.isEmpty();
+            mVideo.clear();
+            return changed;
+        }
+
+        List<Candidate> ranked = new ArrayList<>(mCandidates.values());
+        for (Candidate candidate : ranked) {
+            candidate.rankActivity = candidate.activityAt(now);
+        }
+        Collections.sort(ranked, RANKING);
+
+        boolean changed = false;
+        List<Candidate> holders = new ArrayList<>();
+        for (Candidate candidate : ranked) {
+            if (mVideo.contains(candidate.key)) {
+                holders.add(candidate);
+            }
+        }
+
+        // Shrink to the limit, dropping the lowest ranked holders.
+        while (holders.size() > mMaxStreams) {
+            Candidate dropped = holders.remove(holders.size() - 1);
+            mVideo.remove(dropped.key);
+            changed = true;
+        }
+
+        for (Candidate candidate : ranked) {
+            if (mVideo.contains(candidate.key)) {
+                continue;
+            }
+
+            if (holders.size() < mMaxStreams) {
+                grant(candidate, holders, now);
+                changed = true;
+                continue;
+            }
+
+            Candidate weakest = holders.get(holders.size() - 1);
+            if (candidate.pinned && !weakest.pinned) {
+                revoke(weakest, holders);
+                grant(candidate, holders, now);
+                changed = true;
+            } else if (RANKING.compare(candidate, weakest) < 0
+                    && now - mLastSwap >= SWAP_INTERVAL
+                    && now - weakest.slotSince >= MIN_HOLD_TIME
+                    && (candidate.priority != weakest.priority || candidate.rankActivity >= weakest.rankActivity + ACTIVITY_MARGIN)
+                    && !weakest.pinned) {
+                revoke(weakest, holders);
+                grant(candidate, holders, now);
+                mLastSwap = now;
+                mReassignments++;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private void grant(Candidate candidate, List<Candidate> holders, long now) {
+        mVideo.add(candidate.key);
+        candidate.slotSince = now;
+        holders.add(candidate);
+        Collections.sort(holders, RANKING);
+    }
+
+    private void revoke(Candidate candidate, List<Candidate> holders) {
+        mVideo.remove(candidate.key);
+        holders.remove(candidate);
+    }
+}
@@ -0,0 +1,40 @@
+package com.rnopentok;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ArgbToI420ConverterBenchmark {
+    @Param({BenchmarkFrames.HD, BenchmarkFrames.FULL_HD, BenchmarkFrames.TABLET})
+    public String resolution;
+
+    private ByteBuffer src;
+    private ByteBuffer dst;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        width = BenchmarkFrames.width(resolution);
+        height = BenchmarkFrames.height(resolution);
+        src = BenchmarkFrames.rgba(width, height, 1);
+        dst = ByteBuffer.allocateDirect(ArgbToI420Converter.frameSize(width, height));
+    }
+
+    @Benchmark
+    public ByteBuffer convert() {
+        ArgbToI420Converter.convert(src, width, height, width * 4, dst);
+        return dst;
+    }
+}
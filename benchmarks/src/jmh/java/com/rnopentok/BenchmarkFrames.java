@@ -0,0 +1,40 @@
+package com.rnopentok;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Synthetic frames at the resolutions the screen capture pipeline is used with. */
+final class BenchmarkFrames {
+    static final String HD = "1280x720";
+    static final String FULL_HD = "1920x1080";
+    static final String TABLET = "2560x1600";
+
+    private BenchmarkFrames() {}
+
+    static int width(String resolution) {
+        return Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+    }
+
+    static int height(String resolution) {
+        return Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+    }
+
+    /** Fills a frame of 4-byte pixels with a gradient and some text-like noise. */
+    static ByteBuffer rgba(int width, int height, int seed) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        int state = seed * 0x9E3779B9 + 1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                state ^= state << 13;
+                state ^= state >>> 17;
+                state ^= state << 5;
+                int noise = (state & 0x1f) == 0 ? 0x40 : 0;
+                int r = (x * 255 / width) ^ noise;
+                int g = (y * 255 / height) ^ noise;
+                int b = ((x + y) & 0xff) ^ noise;
+                frame.putInt((y * width + x) * 4, r | (g << 8) | (b << 16) | 0xff000000);
+            }
+        }
+        return frame;
+    }
+}
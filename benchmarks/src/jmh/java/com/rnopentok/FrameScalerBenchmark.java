@@ -0,0 +1,52 @@
+package com.rnopentok;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameScalerBenchmark {
+    @Param({BenchmarkFrames.FULL_HD, BenchmarkFrames.TABLET})
+    public String resolution;
+
+    @Param({"540", "720"})
+    public int maxHeight;
+
+    private ByteBuffer src;
+    private ByteBuffer dst;
+    private FrameScaler scaler;
+    private int width;
+    private int height;
+    private int outWidth;
+    private int outHeight;
+
+    @Setup
+    public void setUp() {
+        width = BenchmarkFrames.width(resolution);
+        height = BenchmarkFrames.height(resolution);
+        long size = FrameScaler.fitSize(width, height, 0, maxHeight, true);
+        outWidth = FrameScaler.fitWidth(size);
+        outHeight = FrameScaler.fitHeight(size);
+
+        src = BenchmarkFrames.rgba(width, height, 1);
+        dst = ByteBuffer.allocateDirect(outWidth * outHeight * 4).order(ByteOrder.LITTLE_ENDIAN);
+        scaler = new FrameScaler();
+    }
+
+    @Benchmark
+    public ByteBuffer downscale() {
+        scaler.scale(src, width, height, width * 4, dst, outWidth, outHeight, outWidth * 4);
+        return dst;
+    }
+}
@@ -0,0 +1,52 @@
+package com.rnopentok;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameTileDifferBenchmark {
+    @Param({BenchmarkFrames.HD, BenchmarkFrames.FULL_HD, BenchmarkFrames.TABLET})
+    public String resolution;
+
+    @Param({"16", "32", "64"})
+    public int tileSize;
+
+    private ByteBuffer first;
+    private ByteBuffer second;
+    private FrameTileDiffer differ;
+    private int width;
+    private int height;
+    private boolean flip;
+
+    @Setup
+    public void setUp() {
+        width = BenchmarkFrames.width(resolution);
+        height = BenchmarkFrames.height(resolution);
+        first = BenchmarkFrames.rgba(width, height, 1);
+        second = BenchmarkFrames.rgba(width, height, 2);
+        differ = new FrameTileDiffer(tileSize);
+        differ.update(first, width, height, width * 4);
+    }
+
+    @Benchmark
+    public int unchanged() {
+        return differ.update(first, width, height, width * 4);
+    }
+
+    @Benchmark
+    public int changed() {
+        flip = !flip;
+        return differ.update(flip ? second : first, width, height, width * 4);
+    }
+}
@@ -0,0 +1,56 @@
+package com.rnopentok;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares extracting bitmap pixels into a pooled direct buffer, as the capturer does
+ * with {@code copyPixelsToBuffer}, against the {@code getPixels} int array path.
+ * A direct buffer stands in for the bitmap memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PixelCopyBenchmark {
+    @Param({BenchmarkFrames.HD, BenchmarkFrames.FULL_HD, BenchmarkFrames.TABLET})
+    public String resolution;
+
+    private ByteBuffer bitmap;
+    private FrameBufferPool pool;
+    private int[] frame;
+
+    @Setup
+    public void setUp() {
+        int width = BenchmarkFrames.width(resolution);
+        int height = BenchmarkFrames.height(resolution);
+        bitmap = BenchmarkFrames.rgba(width, height, 1);
+        pool = new FrameBufferPool(4);
+        frame = new int[width * height];
+    }
+
+    @Benchmark
+    public ByteBuffer pooledBuffer() {
+        ByteBuffer buffer = pool.acquire(bitmap.capacity());
+        bitmap.rewind();
+        buffer.put(bitmap);
+        buffer.rewind();
+        pool.release(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public int[] intArray() {
+        bitmap.rewind();
+        bitmap.asIntBuffer().get(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,232 @@
+package com.rnopentok;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectedSessionsTest {
+    private static final int WRITERS = 4;
+    private static final int READERS = 4;
+    private static final int ROUNDS = 20000;
+    private static final String[] IDS = {"first", "second"};
+
+    private static final class FakeSession {
+        final AtomicInteger released = new AtomicInteger();
+    }
+
+    /** Remembers its session, so a reader can tell a codec of another connection. */
+    private static final class FakeCodec {
+        final FakeSession session;
+
+        FakeCodec(FakeSession session) {
+            this.session = session;
+        }
+    }
+
+    private static final RNOpenTokSignalOutbox.Sender SENDER = new RNOpenTokSignalOutbox.Sender() {
+        @Override
+        public void sendSignal(String type, String data) {
+        }
+    };
+
+    private static final RNOpenTokSignalOutbox.Encoder ENCODER = new RNOpenTokSignalOutbox.Encoder() {
+        @Override
+        public List<String> encode(String data, int compressThreshold) {
+            return Collections.singletonList(data);
+        }
+    };
+
+    private static final RNOpenTokSignalOutbox.Scheduler SCHEDULER = new RNOpenTokSignalOutbox.Scheduler() {
+        @Override
+        public long now() {
+            return 0;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+        }
+    };
+
+    private final Queue<ConnectedSessions.State<FakeSession, FakeCodec>> mCreated = new ConcurrentLinkedQueue<>();
+    private final ConnectedSessions<FakeSession, FakeCodec> mSessions = new ConnectedSessions<>(
+            new ConnectedSessions.Listener<FakeSession>() {
+                @Override
+                public void onSessionReleased(FakeSession session) {
+                    session.released.incrementAndGet();
+                }
+            });
+
+    private ConnectedSessions.State<FakeSession, FakeCodec> createState() {
+        FakeSession session = new FakeSession();
+        RNOpenTokSignalOutbox outbox = new RNOpenTokSignalOutbox(SENDER, ENCODER, SCHEDULER, new RNOpenTokSignalOutbox.Options());
+        ConnectedSessions.State<FakeSession, FakeCodec> state = new ConnectedSessions.State<>(session, new FakeCodec(session), outbox);
+        mCreated.add(state);
+        return state;
+    }
+
+    private static boolean isClosed(RNOpenTokSignalOutbox outbox) {
+        final String[] code = new String[1];
+        outbox.send("probe", "probe", new RNOpenTokSignalOutbox.Callback() {
+            @Override
+            public void onSent() {
+            }
+
+            @Override
+            public void onFailed(String failure, String message) {
+                code[0] = failure;
+            }
+        });
+        return RNOpenTokSignalOutbox.E_SESSION_CLOSED.equals(code[0]);
+    }
+
+    @Test
+    public void replacingReleasesThePreviousState() {
+        ConnectedSessions.State<FakeSession, FakeCodec> first = createState();
+        ConnectedSessions.State<FakeSession, FakeCodec> second = createState();
+        mSessions.connect(IDS[0], first);
+        mSessions.connect(IDS[0], second);
+
+        assertTrue(isClosed(first.outbox));
+        assertEquals(1, first.session.released.get());
+        assertFalse(mSessions.isCurrent(IDS[0], first.session));
+        assertTrue(mSessions.isCurrent(IDS[0], second.session));
+
+        assertSame(second, mSessions.disconnect(IDS[0]));
+        assertNull(mSessions.disconnect(IDS[0]));
+        assertTrue(isClosed(second.outbox));
+        assertEquals(1, second.session.released.get());
+        assertEquals(1, first.session.released.get());
+        assertNull(mSessions.get(IDS[0]));
+    }
+
+    @Test
+    public void ignoresNullIds() {
+        ConnectedSessions.State<FakeSession, FakeCodec> state = createState();
+        mSessions.connect(null, state);
+        assertNull(mSessions.disconnect(null));
+        assertNull(mSessions.get(null));
+        assertFalse(mSessions.isCurrent(null, state.session));
+        assertEquals(0, state.session.released.get());
+    }
+
+    /**
+     * Connects, replaces and disconnects sessions while readers look them up without a
+     * lock, as SDK callbacks do. Readers never see a session without its own codec and
+     * outbox, and every state that was replaced or disconnected has its outbox closed and
+     * its session released exactly once.
+     */
+    @Test
+    public void readersNeverSeePartialStateAndEveryReplacedStateIsReleased() throws Exception {
+        final AtomicInteger threads = new AtomicInteger();
+        final AtomicInteger writing = new AtomicInteger(WRITERS);
+        final AtomicBoolean sawState = new AtomicBoolean();
+
+        runConcurrently(WRITERS + READERS, new Callable<Void>() {
+            @Override
+            public Void call() {
+                if (threads.getAndIncrement() < WRITERS) {
+                    try {
+                        write();
+                    } finally {
+                        writing.decrementAndGet();
+                    }
+                } else {
+                    while (writing.get() > 0) {
+                        if (read()) {
+                            sawState.set(true);
+                        }
+                    }
+                }
+                return null;
+            }
+        });
+
+        for (String id : IDS) {
+            mSessions.disconnect(id);
+        }
+        assertTrue(sawState.get());
+        assertEquals((long) WRITERS * ROUNDS, mCreated.size());
+        for (ConnectedSessions.State<FakeSession, FakeCodec> state : mCreated) {
+            assertTrue(isClosed(state.outbox));
+            assertEquals(1, state.session.released.get());
+        }
+    }
+
+    private void write() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < ROUNDS; i++) {
+            String id = IDS[random.nextInt(IDS.length)];
+            mSessions.connect(id, createState());
+            if (random.nextInt(3) == 0) {
+                mSessions.disconnect(IDS[random.nextInt(IDS.length)]);
+            }
+        }
+    }
+
+    /** Returns true when a state was found. */
+    private boolean read() {
+        boolean found = false;
+        for (String id : IDS) {
+            ConnectedSessions.State<FakeSession, FakeCodec> state = mSessions.get(id);
+            if (state != null) {
+                found = true;
+                assertNotNull(state.session);
+                assertNotNull(state.outbox);
+                assertNotNull(state.codec);
+                assertSame(state.session, state.codec.session);
+                assertNotNull(state.speakers);
+                assertNotNull(state.videoPolicy);
+            }
+        }
+        for (ConnectedSessions.State<FakeSession, FakeCodec> state : mSessions.getStates()) {
+            assertNotNull(state.outbox);
+            assertSame(state.session, state.codec.session);
+        }
+        return found;
+    }
+
+    /** Starts the task on all threads at once and rethrows the first failure. */
+    private static void runConcurrently(int threads, Callable<Void> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Callable<Void> body = task;
+        List<Future<Void>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        return body.call();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
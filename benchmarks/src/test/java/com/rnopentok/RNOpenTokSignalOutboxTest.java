@@ -0,0 +1,355 @@
+package com.rnopentok;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RNOpenTokSignalOutboxTest {
+    /** Clock that only moves when told to, running tasks as they come due. */
+    private static final class FakeScheduler implements RNOpenTokSignalOutbox.Scheduler {
+        private static final class Task {
+            final Runnable runnable;
+            final long dueAt;
+
+            Task(Runnable runnable, long dueAt) {
+                this.runnable = runnable;
+                this.dueAt = dueAt;
+            }
+        }
+
+        private final List<Task> mTasks = new ArrayList<>();
+        private long mNow = 0;
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMs) {
+            mTasks.add(new Task(task, mNow + delayMs));
+        }
+
+        void advance(long ms) {
+            long until = mNow + ms;
+            while (true) {
+                Task next = null;
+                for (Task task : mTasks) {
+                    if (task.dueAt <= until && (next == null || task.dueAt < next.dueAt)) {
+                        next = task;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                mTasks.remove(next);
+                mNow = Math.max(mNow, next.dueAt);
+                next.runnable.run();
+            }
+            mNow = until;
+        }
+    }
+
+    private static final class FakeSender implements RNOpenTokSignalOutbox.Sender {
+        final List<String> sent = new ArrayList<>();
+        String failOn = null;
+
+        @Override
+        public void sendSignal(String type, String data) throws Exception {
+            if (data.equals(failOn)) {
+                throw new Exception("Rejected " + data);
+            }
+            sent.add(data);
+        }
+    }
+
+    /** Splits payloads on '|' so a signal can span several frames. */
+    private static final class SplittingEncoder implements RNOpenTokSignalOutbox.Encoder {
+        @Override
+        public List<String> encode(String data, int compressThreshold) {
+            if (data.equals("huge")) {
+                throw new IllegalArgumentException("Too large");
+            }
+            return Arrays.asList(data.split("\\|"));
+        }
+    }
+
+    private static final class Result implements RNOpenTokSignalOutbox.Callback {
+        int sent = 0;
+        int failed = 0;
+        String code = null;
+        String message = null;
+
+        @Override
+        public void onSent() {
+            sent++;
+        }
+
+        @Override
+        public void onFailed(String code, String message) {
+            failed++;
+            this.code = code;
+            this.message = message;
+        }
+
+        void assertSent() {
+            assertEquals(1, sent);
+            assertEquals(0, failed);
+        }
+
+        void assertFailed(String expected) {
+            assertEquals(0, sent);
+            assertEquals(1, failed);
+            assertEquals(expected, code);
+            assertTrue(message != null && !message.isEmpty());
+        }
+
+        void assertPending() {
+            assertEquals(0, sent);
+            assertEquals(0, failed);
+        }
+    }
+
+    private final FakeScheduler mScheduler = new FakeScheduler();
+    private final FakeSender mSender = new FakeSender();
+
+    private RNOpenTokSignalOutbox createOutbox(RNOpenTokSignalOutbox.Options options) {
+        return new RNOpenTokSignalOutbox(mSender, new SplittingEncoder(), mScheduler, options);
+    }
+
+    private static RNOpenTokSignalOutbox.Options options(double ratePerSecond, int burst, int maxQueue) {
+        RNOpenTokSignalOutbox.Options options = new RNOpenTokSignalOutbox.Options();
+        options.ratePerSecond = ratePerSecond;
+        options.burst = burst;
+        options.maxQueue = maxQueue;
+        return options;
+    }
+
+    private Result send(RNOpenTokSignalOutbox outbox, String type, String data) {
+        Result result = new Result();
+        outbox.send(type, data, result);
+        return result;
+    }
+
+    /** Pacing **/
+
+    @Test
+    public void sendsBurstRightAwayThenPacesAtRate() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 3, 100));
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            results.add(send(outbox, "chat", "m" + i));
+        }
+        assertEquals(Arrays.asList("m0", "m1", "m2"), mSender.sent);
+        assertEquals(3, outbox.getQueueSize());
+
+        mScheduler.advance(99);
+        assertEquals(3, mSender.sent.size());
+        mScheduler.advance(1);
+        assertEquals(4, mSender.sent.size());
+        mScheduler.advance(200);
+        assertEquals(Arrays.asList("m0", "m1", "m2", "m3", "m4", "m5"), mSender.sent);
+
+        for (Result result : results) {
+            result.assertSent();
+        }
+        assertEquals(6, outbox.getSentCount());
+        assertEquals(0, outbox.getQueueSize());
+    }
+
+    @Test
+    public void tokensRefillUpToBurstOnly() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 2, 100));
+        mScheduler.advance(10000);
+        for (int i = 0; i < 4; i++) {
+            send(outbox, "chat", "m" + i);
+        }
+        assertEquals(2, mSender.sent.size());
+    }
+
+    @Test
+    public void framesOfOneSignalCostOneTokenEachAndSettleOnce() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 1, 100));
+        Result split = send(outbox, "file", "a|b|c");
+        Result after = send(outbox, "chat", "d");
+        assertEquals(Collections.singletonList("a"), mSender.sent);
+        split.assertPending();
+
+        mScheduler.advance(200);
+        assertEquals(Arrays.asList("a", "b", "c"), mSender.sent);
+        split.assertSent();
+        after.assertPending();
+
+        mScheduler.advance(100);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), mSender.sent);
+        after.assertSent();
+    }
+
+    /** Drop policies **/
+
+    @Test
+    public void dropOldestFailsTheOldestQueuedSignal() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 1, 2));
+        send(outbox, "chat", "now");
+        Result first = send(outbox, "chat", "m0");
+        Result second = send(outbox, "chat", "m1");
+        Result third = send(outbox, "chat", "m2");
+
+        first.assertFailed(RNOpenTokSignalOutbox.E_SIGNAL_DROPPED);
+        assertEquals(1, outbox.getDroppedCount());
+
+        mScheduler.advance(1000);
+        assertEquals(Arrays.asList("now", "m1", "m2"), mSender.sent);
+        second.assertSent();
+        third.assertSent();
+    }
+
+    @Test
+    public void dropNewestFailsTheIncomingSignal() {
+        RNOpenTokSignalOutbox.Options options = options(10, 1, 2);
+        options.dropPolicy = RNOpenTokSignalOutbox.DropPolicy.DROP_NEWEST;
+        RNOpenTokSignalOutbox outbox = createOutbox(options);
+        send(outbox, "chat", "now");
+        Result first = send(outbox, "chat", "m0");
+        Result second = send(outbox, "chat", "m1");
+        Result third = send(outbox, "chat", "m2");
+
+        third.assertFailed(RNOpenTokSignalOutbox.E_SIGNAL_DROPPED);
+
+        mScheduler.advance(1000);
+        assertEquals(Arrays.asList("now", "m0", "m1"), mSender.sent);
+        first.assertSent();
+        second.assertSent();
+    }
+
+    @Test
+    public void dropOldestKeepsSignalThatStartedSending() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 1, 2));
+        Result split = send(outbox, "file", "a|b");
+        Result waiting = send(outbox, "chat", "m0");
+        Result incoming = send(outbox, "chat", "m1");
+
+        waiting.assertFailed(RNOpenTokSignalOutbox.E_SIGNAL_DROPPED);
+
+        mScheduler.advance(1000);
+        assertEquals(Arrays.asList("a", "b", "m1"), mSender.sent);
+        split.assertSent();
+        incoming.assertSent();
+    }
+
+    /** Coalescing **/
+
+    @Test
+    public void coalescingTypeKeepsOnlyLatestQueuedValue() {
+        RNOpenTokSignalOutbox.Options options = options(10, 1, 100);
+        options.coalesceTypes = new HashSet<>(Collections.singletonList("cursor"));
+        RNOpenTokSignalOutbox outbox = createOutbox(options);
+        send(outbox, "chat", "now");
+        Result first = send(outbox, "cursor", "1,1");
+        Result chat = send(outbox, "chat", "hi");
+        Result second = send(outbox, "cursor", "2,2");
+        Result third = send(outbox, "cursor", "3,3");
+
+        first.assertFailed(RNOpenTokSignalOutbox.E_SIGNAL_SUPERSEDED);
+        second.assertFailed(RNOpenTokSignalOutbox.E_SIGNAL_SUPERSEDED);
+        assertEquals(2, outbox.getQueueSize());
+        assertEquals(2, outbox.getCoalescedCount());
+
+        mScheduler.advance(1000);
+        assertEquals(Arrays.asList("now", "3,3", "hi"), mSender.sent);
+        third.assertSent();
+        chat.assertSent();
+    }
+
+    @Test
+    public void coalescingStopsOnceTheSignalStartedSending() {
+        RNOpenTokSignalOutbox.Options options = options(10, 1, 100);
+        options.coalesceTypes = new HashSet<>(Collections.singletonList("cursor"));
+        RNOpenTokSignalOutbox outbox = createOutbox(options);
+        Result first = send(outbox, "cursor", "1,1");
+        Result second = send(outbox, "cursor", "2,2");
+
+        first.assertSent();
+        second.assertPending();
+        mScheduler.advance(100);
+        assertEquals(Arrays.asList("1,1", "2,2"), mSender.sent);
+        second.assertSent();
+    }
+
+    /** Failures **/
+
+    @Test
+    public void senderErrorFailsOnlyThatSignal() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 5, 100));
+        mSender.failOn = "bad";
+        Result before = send(outbox, "chat", "ok1");
+        Result bad = send(outbox, "chat", "bad");
+        Result after = send(outbox, "chat", "ok2");
+
+        before.assertSent();
+        bad.assertFailed(RNOpenTokSignalOutbox.E_SIGNAL_FAILED);
+        assertEquals("Rejected bad", bad.message);
+        after.assertSent();
+        assertEquals(1, outbox.getFailedCount());
+    }
+
+    @Test
+    public void senderErrorMidSignalSkipsItsRemainingFrames() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 1, 100));
+        mSender.failOn = "b";
+        Result split = send(outbox, "file", "a|b|c");
+        Result after = send(outbox, "chat", "d");
+
+        mScheduler.advance(1000);
+        split.assertFailed(RNOpenTokSignalOutbox.E_SIGNAL_FAILED);
+        after.assertSent();
+        assertEquals(Arrays.asList("a", "d"), mSender.sent);
+    }
+
+    @Test
+    public void payloadTooLargeFailsWithoutQueueing() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 5, 100));
+        Result huge = send(outbox, "file", "huge");
+
+        huge.assertFailed(RNOpenTokSignalOutbox.E_SIGNAL_TOO_LARGE);
+        assertEquals(0, outbox.getQueueSize());
+        assertTrue(mSender.sent.isEmpty());
+    }
+
+    @Test
+    public void closeFailsQueuedAndLaterSignals() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 1, 100));
+        Result sent = send(outbox, "chat", "m0");
+        Result queued = send(outbox, "chat", "m1");
+        Result split = send(outbox, "file", "a|b");
+        outbox.close();
+        Result late = send(outbox, "chat", "m2");
+
+        sent.assertSent();
+        queued.assertFailed(RNOpenTokSignalOutbox.E_SESSION_CLOSED);
+        split.assertFailed(RNOpenTokSignalOutbox.E_SESSION_CLOSED);
+        late.assertFailed(RNOpenTokSignalOutbox.E_SESSION_CLOSED);
+
+        mScheduler.advance(1000);
+        assertEquals(Collections.singletonList("m0"), mSender.sent);
+        assertEquals(0, outbox.getQueueSize());
+    }
+
+    @Test
+    public void lowerBurstTakesEffectRightAway() {
+        RNOpenTokSignalOutbox outbox = createOutbox(options(10, 20, 100));
+        outbox.setOptions(options(10, 1, 100));
+        send(outbox, "chat", "m0");
+        Result second = send(outbox, "chat", "m1");
+
+        assertEquals(1, mSender.sent.size());
+        second.assertPending();
+    }
+}
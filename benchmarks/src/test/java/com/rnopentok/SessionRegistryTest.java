@@ -0,0 +1,163 @@
+package com.rnopentok;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SessionRegistryTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20000;
+    private static final String ID = "session";
+
+    @Test
+    public void ignoresNullIds() {
+        SessionRegistry<Object> registry = new SessionRegistry<>();
+        assertNull(registry.register(null, new Object()));
+        assertNull(registry.get(null));
+        assertNull(registry.unregister(null));
+        assertFalse(registry.unregister(null, new Object()));
+        assertFalse(registry.isCurrent(null, null));
+        assertTrue(registry.getIds().isEmpty());
+    }
+
+    @Test
+    public void lateOwnerDoesNotDropNewerEntry() {
+        SessionRegistry<Object> registry = new SessionRegistry<>();
+        Object old = new Object();
+        Object current = new Object();
+        registry.register(ID, old);
+        assertSame(old, registry.register(ID, current));
+
+        assertFalse(registry.unregister(ID, old));
+        assertFalse(registry.isCurrent(ID, old));
+        assertTrue(registry.isCurrent(ID, current));
+        assertTrue(registry.unregister(ID, current));
+        assertNull(registry.get(ID));
+    }
+
+    /**
+     * Every entry leaves the registry exactly once, either replaced by another thread's
+     * registration or removed by its owner, and the registry ends up empty.
+     */
+    @Test
+    public void everyEntryLeavesExactlyOnce() throws Exception {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+        final AtomicLong replaced = new AtomicLong();
+        final AtomicLong removed = new AtomicLong();
+
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    Object entry = new Object();
+                    if (registry.register(ID, entry) != null) {
+                        replaced.incrementAndGet();
+                    }
+                    if (registry.unregister(ID, entry)) {
+                        removed.incrementAndGet();
+                    }
+                }
+                return null;
+            }
+        });
+
+        assertEquals((long) THREADS * ROUNDS, replaced.get() + removed.get());
+        assertNull(registry.get(ID));
+    }
+
+    /** Once replaced or removed, an entry never becomes current again. */
+    @Test
+    public void replacedEntryIsNeverCurrent() throws Exception {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    Object entry = new Object();
+                    Object previous = registry.register(ID, entry);
+                    if (previous != null) {
+                        assertFalse(registry.isCurrent(ID, previous));
+                        assertFalse(registry.unregister(ID, previous));
+                    }
+                    if (i % 2 == 0) {
+                        registry.unregister(ID, entry);
+                        assertFalse(registry.isCurrent(ID, entry));
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /** Unconditional removal, as on disconnect, races with owners removing their own entry. */
+    @Test
+    public void unregisterRacesWithOwners() throws Exception {
+        final SessionRegistry<Object> registry = new SessionRegistry<>();
+        final AtomicLong left = new AtomicLong();
+
+        runConcurrently(new Callable<Void>() {
+            @Override
+            public Void call() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    Object entry = new Object();
+                    if (registry.register(ID, entry) != null) {
+                        left.incrementAndGet();
+                    }
+                    if (i % 3 == 0) {
+                        if (registry.unregister(ID) != null) {
+                            left.incrementAndGet();
+                        }
+                    } else if (registry.unregister(ID, entry)) {
+                        left.incrementAndGet();
+                    }
+                }
+                return null;
+            }
+        });
+
+        if (registry.unregister(ID) != null) {
+            left.incrementAndGet();
+        }
+        assertEquals((long) THREADS * ROUNDS, left.get());
+    }
+
+    /** Starts the task on all threads at once and rethrows the first failure. */
+    private static void runConcurrently(Callable<Void> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Callable<Void> body = task;
+        List<Future<Void>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        return body.call();
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -5,8 +5,37 @@ import {
   NativeEventEmitter,
   DeviceEventEmitter,
 } from 'react-native';
+import EventEmitter from 'react-native/Libraries/vendor/emitter/EventEmitter';
+
+/**
+ * On Android events are queued natively and delivered as one `onEventBatch`
+ * array per frame. They are re-emitted here one by one, so listeners keep
+ * subscribing to single event names. Events emitted unbatched (see
+ * `setEventBatchInterval`) are picked up from DeviceEventEmitter directly.
+ */
+const batchEmitter = new EventEmitter();
+
+DeviceEventEmitter.addListener(
+  'onEventBatch',
+  (events: Array<{ name: string, payload: any }>) => {
+    events.forEach(({ name, payload }) => batchEmitter.emit(name, payload));
+  }
+);
+
+const AndroidEventEmitter = {
+  addListener: (name: string, callback: Function) => {
+    const subscriptions = [
+      batchEmitter.addListener(name, callback),
+      DeviceEventEmitter.addListener(name, callback),
+    ];
+    return {
+      remove: () =>
+        subscriptions.forEach(subscription => subscription.remove()),
+    };
+  },
+};
 
 export default Platform.select({
   ios: new NativeEventEmitter(NativeModules.RNOpenTokEventEmitter),
-  android: DeviceEventEmitter,
+  android: AndroidEventEmitter,
 });
@@ -1,6 +1,6 @@
 /* @flow */
 import React from 'react';
-import { requireNativeComponent } from 'react-native';
+import { Platform, requireNativeComponent } from 'react-native';
 
 import NativeEventEmitter from '../NativeEventEmitter';
 import RNOpenTok from '../';
@@ -13,9 +13,28 @@ const RNOpenTokPublisherView = requireNativeComponent(
   PublisherView
 );
 
-const publishListeners = ['onPublishStart', 'onPublishStop', 'onPublishError'];
+const publishListeners = [
+  'onPublishStart',
+  'onPublishStop',
+  'onPublishError',
+  'onScreenCaptureStats',
+  'onScreenCaptureStop',
+  'onPublisherMetrics',
+  'onPublisherStats',
+];
 const NOOP = () => {};
 
+/**
+ * On Android the native view sends its events only to its own callback props,
+ * so they are passed down instead of subscribing to the global emitter.
+ */
+const nativeHandlers = (component: Object) =>
+  publishListeners.reduce((handlers, name) => {
+    handlers[name] = (e: { nativeEvent: Object }) =>
+      component.props[name](e.nativeEvent);
+    return handlers;
+  }, {});
+
 export default class PublisherView extends React.Component<
   PublisherViewProps,
   { camera: number }
@@ -24,6 +43,10 @@ export default class PublisherView extends React.Component<
     onPublishStart: NOOP,
     onPublishStop: NOOP,
     onPublishError: NOOP,
+    onScreenCaptureStats: NOOP,
+    onScreenCaptureStop: NOOP,
+    onPublisherMetrics: NOOP,
+    onPublisherStats: NOOP,
     sessionId: '',
     mute: false,
     video: true,
@@ -35,18 +58,30 @@ export default class PublisherView extends React.Component<
     camera: 0,
   };
 
+  _nativeHandlers = Platform.OS === 'android' ? nativeHandlers(this) : {};
+
   componentWillMount() {
-    publishListeners.forEach(listener => this._addListener(listener));
+    if (Platform.OS === 'ios') {
+      publishListeners.forEach(listener => this._addListener(listener));
+    }
     RNOpenTok.on(RNOpenTok.events.ERROR_NO_SCREEN_CAPTURE_VIEW, () => {
       throw new Error(
         'Could not find screen capture view. Make sure you are using <ScreenCapture> component.'
       );
     });
+    RNOpenTok.on(RNOpenTok.events.ERROR_NO_SCREEN_CAPTURE_PERMISSION, () => {
+      throw new Error(
+        'Screen capture was not allowed. Call OpenTok.requestScreenCapturePermission() before publishing the device screen.'
+      );
+    });
   }
 
   componentWillUnmount() {
-    publishListeners.forEach(listener => this._removeListener(listener));
+    if (Platform.OS === 'ios') {
+      publishListeners.forEach(listener => this._removeListener(listener));
+    }
     RNOpenTok.removeListener(RNOpenTok.events.ERROR_NO_SCREEN_CAPTURE_VIEW);
+    RNOpenTok.removeListener(RNOpenTok.events.ERROR_NO_SCREEN_CAPTURE_PERMISSION);
   }
 
   _addListener = (name: string) => {
@@ -74,9 +109,19 @@ export default class PublisherView extends React.Component<
       onPublishStart,
       onPublishStop,
       onPublishError,
+      onScreenCaptureStats,
+      onScreenCaptureStop,
+      onPublisherMetrics,
+      onPublisherStats,
       ...passProps
     } = this.props;
 
-    return <RNOpenTokPublisherView camera={this.state.camera} {...passProps} />;
+    return (
+      <RNOpenTokPublisherView
+        camera={this.state.camera}
+        {...passProps}
+        {...this._nativeHandlers}
+      />
+    );
   }
 }
@@ -1,6 +1,6 @@
 /* @flow */
 import React from 'react';
-import { requireNativeComponent } from 'react-native';
+import { Platform, requireNativeComponent } from 'react-native';
 
 import NativeEventEmitter from '../NativeEventEmitter';
 
@@ -16,9 +16,21 @@ const subscribeListeners = [
   'onSubscribeStart',
   'onSubscribeStop',
   'onSubscribeError',
+  'onSubscriberStats',
 ];
 const NOOP = () => {};
 
+/**
+ * On Android the native view sends its events only to its own callback props,
+ * so they are passed down instead of subscribing to the global emitter.
+ */
+const nativeHandlers = (component: Object) =>
+  subscribeListeners.reduce((handlers, name) => {
+    handlers[name] = (e: { nativeEvent: Object }) =>
+      component.props[name](e.nativeEvent);
+    return handlers;
+  }, {});
+
 export default class SubscriberView extends React.Component<
   SubscriberViewProps
 > {
@@ -26,16 +38,23 @@ export default class SubscriberView extends React.Component<
     onSubscribeStart: NOOP,
     onSubscribeStop: NOOP,
     onSubscribeError: NOOP,
+    onSubscriberStats: NOOP,
     mute: false,
     video: true,
   };
 
+  _nativeHandlers = Platform.OS === 'android' ? nativeHandlers(this) : {};
+
   componentWillMount() {
-    subscribeListeners.forEach(listener => this.addListener(listener));
+    if (Platform.OS === 'ios') {
+      subscribeListeners.forEach(listener => this.addListener(listener));
+    }
   }
 
   componentWillUnmount() {
-    subscribeListeners.forEach(listener => this.removeListener(listener));
+    if (Platform.OS === 'ios') {
+      subscribeListeners.forEach(listener => this.removeListener(listener));
+    }
   }
 
   addListener = (name: string) => {
@@ -59,9 +78,12 @@ export default class SubscriberView extends React.Component<
       onSubscribeStart,
       onSubscribeStop,
       onSubscribeError,
+      onSubscriberStats,
       ...passProps
     } = this.props;
 
-    return <RNOpenTokSubscriberView {...passProps} />;
+    return (
+      <RNOpenTokSubscriberView {...passProps} {...this._nativeHandlers} />
+    );
   }
 }
@@ -13,6 +13,12 @@ import type {
   OpenTokEvent,
   SubscriberProps,
   PublisherProps,
+  ScreenCaptureStats,
+  VideoProcessorStats,
+  NativeStats,
+  Signal,
+  SignalResult,
+  SignalOptions,
 } from './types';
 
 const listeners = {};
@@ -76,10 +82,13 @@ export default {
     ON_SESSION_STREAM_CREATED: 'onSessionStreamCreated',
     ON_SESSION_STREAM_DESTROYED: 'onSessionStreamDestroyed',
     ERROR_NO_SCREEN_CAPTURE_VIEW: 'errorNoScreenCaptureView',
+    ERROR_NO_SCREEN_CAPTURE_PERMISSION: 'errorNoScreenCapturePermission',
     ON_ARCHIVE_STARTED_WITH_ID: 'onArchiveStartedWithId',
     ON_ARCHIVE_STOPPED_WITH_ID: 'onArchiveStoppedWithId',
     ON_SESSION_DID_BEGIN_RECONNECTING: 'onSessionDidBeginReconnecting',
     ON_SESSION_DID_RECONNECT: 'onSessionDidReconnect',
+    ON_ACTIVE_SPEAKER_CHANGED: 'onActiveSpeakerChanged',
+    ON_VIDEO_STREAMS_CHANGED: 'onVideoStreamsChanged',
   },
 
   setApiKey: (apiKey: string): void => {
@@ -104,6 +113,39 @@ export default {
   ): Promise<boolean | Error> =>
     NativeModules.RNOpenTok.sendSignal(sessionId, type, message),
 
+  sendSignals: (
+    sessionId: string,
+    signals: Array<Signal>
+  ): Promise<Array<SignalResult>> =>
+    NativeModules.RNOpenTok.sendSignals(sessionId, signals),
+
+  setSignalOptions: (options: SignalOptions): void => {
+    NativeModules.RNOpenTok.setSignalOptions(options);
+  },
+
+  requestScreenCapturePermission: (): Promise<boolean> =>
+    NativeModules.RNOpenTok.requestScreenCapturePermission(),
+
+  getScreenCaptureStats: (sessionId: string): Promise<ScreenCaptureStats> =>
+    NativeModules.RNOpenTok.getScreenCaptureStats(sessionId),
+
+  getVideoProcessorStats: (sessionId: string): Promise<VideoProcessorStats> =>
+    NativeModules.RNOpenTok.getVideoProcessorStats(sessionId),
+
+  setEventBatchInterval: (interval: number): void => {
+    NativeModules.RNOpenTok.setEventBatchInterval(interval);
+  },
+
+  setActiveSpeakerDetection: (enabled: boolean): void => {
+    NativeModules.RNOpenTok.setActiveSpeakerDetection(enabled);
+  },
+
+  setMaxVideoStreams: (sessionId: string, maxStreams: number): void => {
+    NativeModules.RNOpenTok.setMaxVideoStreams(sessionId, maxStreams);
+  },
+
+  getStats: (): Promise<NativeStats> => NativeModules.RNOpenTok.getStats(),
+
   on: (name: OpenTokEvent, callback: RNOpenTokEventCallback): void => {
     if (listeners[name]) {
       listeners[name].remove();
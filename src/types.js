@@ -23,6 +23,8 @@ export type OpenTokEvent =
   | 'onSessionDidFailWithError'
   | 'onSessionStreamCreated'
   | 'onSessionStreamDestroyed'
+  | 'onActiveSpeakerChanged'
+  | 'onVideoStreamsChanged'
   | 'errorNoScreenCaptureView';
 
 type OpenTokViewProps = {|
@@ -42,22 +44,213 @@ type Listeners = {|
   },
 |};
 
+export type ScreenCaptureFrameStats = {
+  fps: number,
+  targetFps: number,
+  achievedFps: number,
+  droppedFrames: number,
+  captureTimeMs: number,
+};
+
+export type VideoProcessor =
+  | { type: 'crop' | 'mask', x?: number, y?: number, width?: number, height?: number }
+  | { type: 'mirror' }
+  | { type: 'downscale', maxWidth: number, maxHeight: number };
+
 export type PublisherProps = {|
   ...OpenTokViewProps,
   onPublishStart?: () => void,
   onPublishStop?: () => void,
   onPublishError?: () => void,
+  onScreenCaptureStats?: (stats: ScreenCaptureFrameStats) => void,
+  onScreenCaptureStop?: (event: { reason: 'projectionStopped' }) => void,
+  onPublisherMetrics?: (metrics: PublisherMetrics) => void,
+  onPublisherStats?: (stats: MediaStats) => void,
+  statsInterval?: number,
+  prewarm?: boolean,
+  cameraResolution?: 'low' | 'medium' | 'high',
+  cameraFps?: number,
+  videoProcessors?: Array<VideoProcessor>,
   screenCapture?: boolean,
   screenCaptureSettings?: {
+    source?: 'view' | 'device',
     fps?: number,
+    bufferFrames?: boolean,
+    skipUnchangedFrames?: boolean,
+    keepaliveInterval?: number,
+    tileSize?: number,
+    maxWidth?: number,
+    maxHeight?: number,
+    format?: 'rgba' | 'i420',
+    minFps?: number,
+    adaptiveFps?: boolean,
+    statsInterval?: number,
   },
 |};
 
+export type MediaWindowStats = {
+  samples: number,
+  bitrateKbps: number,
+  bitrateKbpsP95: number,
+  lossRate: number,
+  lossRateP95: number,
+};
+
+export type MediaStats = {
+  streamId?: string,
+  video: MediaWindowStats & { frameRate: number, frameRateP5: number },
+  audio: MediaWindowStats,
+};
+
+export type PublisherMetrics = {
+  prewarm: boolean,
+  timeToPreviewMs: number,
+  timeToConnectMs: number,
+  timeToPublishMs: number,
+  connectToPublishMs: number,
+};
+
+export type ScreenCaptureStats = {
+  width: number,
+  height: number,
+  framesCaptured: number,
+  fps: number,
+  captureTimeMs: number,
+  bufferAllocations: number,
+  bufferReuses: number,
+  pooledBytes: number,
+  framesSkipped: number,
+  // View capture only
+  deadlinesMissed?: number,
+  bitmapAllocations?: number,
+  arrayAllocations?: number,
+  framesDroppedBusy?: number,
+  changedFrames?: number,
+  tiles?: number,
+  lastDirtyTiles?: number,
+  dirtyTileRatio?: number,
+  // Device capture only
+  keepaliveFrames?: number,
+};
+
+export type VideoProcessorStats = {
+  framesProcessed: number,
+  framesDropped: number,
+  processors: Array<{
+    name: string,
+    runs: number,
+    skips: number,
+    averageMs: number,
+    maxMs: number,
+  }>,
+};
+
+export type EventDispatcherStats = {
+  flushInterval: number,
+  queueDepth: number,
+  maxQueueDepth: number,
+  dispatched: number,
+  coalesced: number,
+  flushes: number,
+  averageFlushLatencyMs: number,
+  maxFlushLatencyMs: number,
+};
+
+export type Signal = {
+  type: string,
+  data: string,
+};
+
+export type SignalResult = {
+  type: string,
+  sent: boolean,
+  code?: string,
+  message?: string,
+};
+
+export type SignalOptions = {
+  ratePerSecond?: number,
+  burst?: number,
+  maxQueue?: number,
+  dropPolicy?: 'dropOldest' | 'dropNewest',
+  coalesceTypes?: Array<string>,
+  compressThreshold?: number,
+};
+
+export type SignalOutboxStats = {
+  queued: number,
+  sent: number,
+  failed: number,
+  dropped: number,
+  coalesced: number,
+  framed: number,
+  reassembled: number,
+  incomplete: number,
+  malformed: number,
+  reassembling: number,
+};
+
+export type ActiveSpeakerStats = {
+  streamId: ?string,
+  samples: number,
+  changes: number,
+};
+
+export type VideoPauseStats = {
+  pausedTimeMs: number,
+  pauses: number,
+  pausedViews: number,
+};
+
+export type VideoPolicyStats = {
+  maxVideoStreams: number,
+  streams: number,
+  videoStreams: number,
+  reassignments: number,
+};
+
+export type RendererPoolStats = {
+  hits: number,
+  misses: number,
+  released: number,
+  discarded: number,
+  pooled: number,
+};
+
+export type LayoutStats = {
+  passes: number,
+  skipped: number,
+};
+
+export type LifecycleStats = {
+  state: 'foreground' | 'background',
+  foregroundTimeMs: number,
+  backgroundTimeMs: number,
+  pauses: number,
+};
+
+export type NativeStats = {
+  events: EventDispatcherStats,
+  signals: { [sessionId: string]: SignalOutboxStats },
+  activeSpeaker: { [sessionId: string]: ActiveSpeakerStats },
+  videoPause: VideoPauseStats,
+  videoPolicy: { [sessionId: string]: VideoPolicyStats },
+  rendererPool: RendererPoolStats,
+  layout: LayoutStats,
+  lifecycle: LifecycleStats,
+};
+
 export type SubscriberProps = {|
   ...OpenTokViewProps,
   onSubscribeStart?: () => void,
   onSubscribeStop?: () => void,
   onSubscribeError?: () => void,
+  onSubscriberStats?: (stats: MediaStats) => void,
+  statsInterval?: number,
+  streamId?: string,
+  priority?: 'low' | 'normal' | 'high',
+  pauseWhenHidden?: boolean,
+  pinned?: boolean,
 |};
 
 export type SubscriberViewProps = {